@@ -31,6 +31,7 @@ fun ShadowJar.configureRelocations() {
   relocate("org.apiguardian", "gg.mineads.monitor.shadow.annotations.apiguardian")
   relocate("com.google.gson", "gg.mineads.monitor.shadow.gson")
   relocate("com.google.protobuf", "gg.mineads.monitor.shadow.protobuf")
+  relocate("io.airlift.compress", "gg.mineads.monitor.shadow.aircompressor")
   relocate("com.google.errorprone", "gg.mineads.monitor.shadow.errorprone")
   relocate("com.tcoded.folialib", "gg.mineads.monitor.shadow.folialib")
   relocate("io.leangen.geantyref", "gg.mineads.monitor.shadow.geantyref")
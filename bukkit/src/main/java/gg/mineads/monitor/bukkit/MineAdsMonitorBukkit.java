@@ -86,7 +86,7 @@ public class MineAdsMonitorBukkit extends JavaPlugin {
 
     @Override
     public void registerListeners(MineAdsMonitorPlugin mineAdsPlugin) {
-      plugin.getServer().getPluginManager().registerEvents(new PlayerListener(getScheduler(), mineAdsPlugin), plugin);
+      plugin.getServer().getPluginManager().registerEvents(new PlayerListener(mineAdsPlugin.getScheduler(), mineAdsPlugin), plugin);
     }
 
     @Override
@@ -21,6 +21,8 @@ import com.destroystokyo.paper.event.player.PlayerClientOptionsChangeEvent;
 import com.destroystokyo.paper.profile.PlayerProfile;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import gg.mineads.monitor.shared.MineAdsMonitorPlugin;
+import gg.mineads.monitor.shared.config.RuntimeConfig;
+import gg.mineads.monitor.shared.event.EventCapture;
 import gg.mineads.monitor.shared.event.TypeUtil;
 import gg.mineads.monitor.shared.event.generated.*;
 import gg.mineads.monitor.shared.permission.LuckPermsUtil;
@@ -40,6 +42,7 @@ import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -61,8 +64,13 @@ public class PlayerListener implements Listener {
 
   @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
   public void onPlayerJoin(PlayerJoinEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.JOIN_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.JOIN_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player join event ignored - JOIN events disabled");
       }
       return;
@@ -71,13 +79,15 @@ public class PlayerListener implements Listener {
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.createSession(player.getUniqueId());
     UUID sessionId = session.sessionId();
-    SkinData skinData = extractSkinData(player);
+    // Only collected here, decoding the textures happens off the join thread
+    List<SkinProperty> skinProperties = extractSkinProperties(player);
 
     // Process event asynchronously to avoid blocking main thread
     scheduler.runAsync(() -> {
-      LuckPermsData luckPermsData = LuckPermsUtil.getLuckPermsData(plugin.getConfig(), player.getUniqueId());
+      SkinData skinData = SkinData.fromProperties(skinProperties).orElse(null);
+      LuckPermsData luckPermsData = LuckPermsUtil.getLuckPermsData(runtimeConfig.config(), player.getUniqueId());
 
-      if (plugin.getConfig().isDebug()) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player joined: %s (%s), session: %s, groups: %s".formatted(player.getName(), player.getUniqueId(), sessionId, luckPermsData != null ? luckPermsData.getGroupsList() : null));
       }
 
@@ -130,16 +140,21 @@ public class PlayerListener implements Listener {
 
       plugin.getBatchProcessor().addEvent(protoEvent);
 
-      if (isEventEnabled(MineAdsEvent.DataCase.CLIENT_BRAND_DATA)) {
-        scheduleClientBrandCapture(player, sessionId, 0);
+      if (runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.CLIENT_BRAND_DATA)) {
+        scheduleClientBrandCapture(player, sessionId, 0, runtimeConfig);
       }
     });
   }
 
   @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
   public void onPlayerQuit(PlayerQuitEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.LEAVE_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.LEAVE_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player quit event ignored - LEAVE events disabled");
       }
       return;
@@ -148,29 +163,22 @@ public class PlayerListener implements Listener {
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.removeSession(player.getUniqueId());
 
-    // Process event asynchronously to avoid blocking main thread
-    scheduler.runAsync(() -> {
-      if (session != null) {
-        if (plugin.getConfig().isDebug()) {
-          log.info("[DEBUG] Player quit: %s (%s), session: %s".formatted(player.getName(), player.getUniqueId(), session.sessionId()));
-        }
-        PlayerLeaveData data = PlayerLeaveData.newBuilder()
-          .setSessionId(session.sessionId().toString())
-          .build();
-
-        MineAdsEvent protoEvent = TypeUtil.createLeaveEvent(data);
-
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Player quit: %s - no active session found".formatted(player.getName()));
-      }
-    });
+    if (session != null) {
+      plugin.getEventCapture().publish(new EventCapture.Leave(session.sessionId(), player.getName(), player.getUniqueId()));
+    } else if (runtimeConfig.isDebug()) {
+      log.info("[DEBUG] Player quit: %s - no active session found".formatted(player.getName()));
+    }
   }
 
   @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
   public void onPlayerChat(AsyncPlayerChatEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.CHAT_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.CHAT_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player chat event ignored - CHAT events disabled");
       }
       return;
@@ -179,35 +187,22 @@ public class PlayerListener implements Listener {
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
 
-    // Process event asynchronously to avoid blocking main thread
-    scheduler.runAsync(() -> {
-      if (session != null) {
-        if (plugin.getConfig().isDebug()) {
-          String message = event.getMessage().substring(0, Math.min(50, event.getMessage().length())) + (event.getMessage().length() > 50 ? "..." : "");
-          log.info("[DEBUG] Player chat: %s - %s".formatted(player.getName(), message));
-        }
-        PlayerChatData.Builder dataBuilder = PlayerChatData.newBuilder()
-          .setSessionId(session.sessionId().toString());
-
-        if (!plugin.getConfig().isDisableChatContent()) {
-          dataBuilder.setMessage(event.getMessage());
-        }
-
-        PlayerChatData data = dataBuilder.build();
-
-        MineAdsEvent protoEvent = TypeUtil.createChatEvent(data);
-
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Player chat ignored: %s - no active session".formatted(player.getName()));
-      }
-    });
+    if (session != null) {
+      plugin.getEventCapture().publish(new EventCapture.Chat(session.sessionId(), player.getName(), event.getMessage()));
+    } else if (runtimeConfig.isDebug()) {
+      log.info("[DEBUG] Player chat ignored: %s - no active session".formatted(player.getName()));
+    }
   }
 
   @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
   public void onPlayerSettings(PlayerClientOptionsChangeEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.SETTINGS_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.SETTINGS_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player settings event ignored - PLAYER_SETTINGS events disabled");
       }
       return;
@@ -216,44 +211,34 @@ public class PlayerListener implements Listener {
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
 
-    scheduler.runAsync(() -> {
-      if (session == null) {
-        if (plugin.getConfig().isDebug()) {
-          log.info("[DEBUG] Player settings ignored: %s - no active session".formatted(player.getName()));
-        }
-        return;
-      }
-
-      PlayerSettingsData.Builder builder = PlayerSettingsData.newBuilder()
-        .setSessionId(session.sessionId().toString());
-
-      String locale = event.getLocale();
-      if (locale != null && !locale.isBlank()) {
-        builder.setLocale(locale);
+    if (session == null) {
+      if (runtimeConfig.isDebug()) {
+        log.info("[DEBUG] Player settings ignored: %s - no active session".formatted(player.getName()));
       }
+      return;
+    }
 
-      builder
-        .setViewDistance(event.getViewDistance())
-        .setChatMode(event.getChatVisibility().name())
-        .setChatColors(event.hasChatColorsEnabled())
-        .setMainHand(event.getMainHand().name())
-        .setTextFilteringEnabled(event.hasTextFilteringEnabled())
-        .setAllowsServerListings(event.allowsServerListings());
-
-      PlayerSettingsData data = builder.build();
-      if (session.markSettingsSentIfFirst()) {
-        MineAdsEvent protoEvent = TypeUtil.createPlayerSettingsEvent(data);
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Skipping duplicate player settings event for session " + session.sessionId());
-      }
-    });
+    plugin.getEventCapture().publish(new EventCapture.Settings(
+      session,
+      event.getLocale(),
+      event.getViewDistance(),
+      event.getChatVisibility().name(),
+      event.hasChatColorsEnabled(),
+      event.getMainHand().name(),
+      event.hasTextFilteringEnabled(),
+      event.allowsServerListings()
+    ));
   }
 
   @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
   public void onPlayerCommand(PlayerCommandPreprocessEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.COMMAND_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.COMMAND_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player command event ignored - COMMAND events disabled");
       }
       return;
@@ -262,37 +247,18 @@ public class PlayerListener implements Listener {
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
 
-    // Process event asynchronously to avoid blocking main thread
-    scheduler.runAsync(() -> {
-      if (session != null) {
-        if (plugin.getConfig().isDebug()) {
-          String command = event.getMessage().substring(0, Math.min(50, event.getMessage().length())) + (event.getMessage().length() > 50 ? "..." : "");
-          log.info("[DEBUG] Player command: %s - %s".formatted(player.getName(), command));
-        }
-        PlayerCommandData.Builder dataBuilder = TypeUtil.createCommandDataBuilder(
-          session.sessionId().toString(),
-          event.getMessage(),
-          true,
-          plugin.getConfig().getDefaultMaxCommandArgs(),
-          plugin.getConfig().getCommandArgLimits()
-        );
-
-        PlayerCommandData data = dataBuilder.build();
-
-        MineAdsEvent protoEvent = TypeUtil.createCommandEvent(data);
-
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Player command ignored: %s - no active session".formatted(player.getName()));
-      }
-    });
+    if (session != null) {
+      plugin.getEventCapture().publish(new EventCapture.Command(session.sessionId(), player.getName(), event.getMessage(), true));
+    } else if (runtimeConfig.isDebug()) {
+      log.info("[DEBUG] Player command ignored: %s - no active session".formatted(player.getName()));
+    }
   }
 
-  private void scheduleClientBrandCapture(Player player, UUID sessionId, int attempt) {
+  private void scheduleClientBrandCapture(Player player, UUID sessionId, int attempt, RuntimeConfig runtimeConfig) {
     scheduler.runAsync(() -> {
       PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
       if (session == null || !session.sessionId().equals(sessionId)) {
-        if (plugin.getConfig().isDebug()) {
+        if (runtimeConfig.isDebug()) {
           log.info("[DEBUG] Skipping client brand; session not found for " + player.getName());
         }
         return;
@@ -301,15 +267,15 @@ public class PlayerListener implements Listener {
       String clientBrand = player.getClientBrandName();
       if (clientBrand == null || clientBrand.isBlank()) {
         if (attempt < MAX_BRAND_ATTEMPTS) {
-          scheduler.scheduleAsyncDelayed(() -> scheduleClientBrandCapture(player, session.sessionId(), attempt + 1), BRAND_RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
-        } else if (plugin.getConfig().isDebug()) {
+          scheduler.scheduleAsyncDelayed(() -> scheduleClientBrandCapture(player, session.sessionId(), attempt + 1, runtimeConfig), BRAND_RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        } else if (runtimeConfig.isDebug()) {
           log.info("[DEBUG] Client brand not available for %s after %d attempts".formatted(player.getName(), attempt));
         }
         return;
       }
 
       if (!session.markBrandSentIfFirst()) {
-        if (plugin.getConfig().isDebug()) {
+        if (runtimeConfig.isDebug()) {
           log.info("[DEBUG] Skipping duplicate client brand for session " + session.sessionId());
         }
         return;
@@ -324,18 +290,11 @@ public class PlayerListener implements Listener {
     });
   }
 
-  private boolean isEventEnabled(MineAdsEvent.DataCase eventType) {
-    return plugin.getConfig().isEventEnabled(eventType);
-  }
-
-  private SkinData extractSkinData(Player player) {
+  private List<SkinProperty> extractSkinProperties(Player player) {
     PlayerProfile profile = player.getPlayerProfile();
     return profile.getProperties().stream()
       .map(property -> SkinProperty.tryParse(property.getName(), property.getValue(), property.getSignature()))
       .flatMap(Optional::stream)
-      .map(SkinData::fromProperty)
-      .flatMap(Optional::stream)
-      .findFirst()
-      .orElse(null);
+      .toList();
   }
 }
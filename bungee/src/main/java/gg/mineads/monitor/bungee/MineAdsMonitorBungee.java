@@ -82,7 +82,7 @@ public class MineAdsMonitorBungee extends Plugin {
 
     @Override
     public void registerListeners(MineAdsMonitorPlugin mineAdsPlugin) {
-      plugin.getProxy().getPluginManager().registerListener(plugin, new PlayerListener(getScheduler(), mineAdsPlugin));
+      plugin.getProxy().getPluginManager().registerListener(plugin, new PlayerListener(mineAdsPlugin.getScheduler(), mineAdsPlugin));
     }
 
     @Override
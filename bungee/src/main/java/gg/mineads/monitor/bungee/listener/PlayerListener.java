@@ -19,6 +19,8 @@ package gg.mineads.monitor.bungee.listener;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import gg.mineads.monitor.shared.MineAdsMonitorPlugin;
+import gg.mineads.monitor.shared.config.RuntimeConfig;
+import gg.mineads.monitor.shared.event.EventCapture;
 import gg.mineads.monitor.shared.event.TypeUtil;
 import gg.mineads.monitor.shared.event.generated.*;
 import gg.mineads.monitor.shared.permission.LuckPermsUtil;
@@ -45,6 +47,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.UUID;
@@ -63,8 +66,13 @@ public class PlayerListener implements Listener {
 
   @EventHandler(priority = EventPriority.HIGHEST)
   public void onPostLogin(PostLoginEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.JOIN_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.JOIN_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player join event ignored - JOIN events disabled");
       }
       return;
@@ -73,13 +81,15 @@ public class PlayerListener implements Listener {
     ProxiedPlayer player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.createSession(player.getUniqueId());
     UUID sessionId = session.sessionId();
-    SkinData skinData = extractSkinData(((InitialHandler) player.getPendingConnection()).getLoginProfile());
+    // Only collected here, decoding the textures happens off the join thread
+    List<SkinProperty> skinProperties = extractSkinProperties(((InitialHandler) player.getPendingConnection()).getLoginProfile());
 
     // Process event asynchronously to avoid blocking main thread
     scheduler.runAsync(() -> {
-      LuckPermsData luckPermsData = LuckPermsUtil.getLuckPermsData(plugin.getConfig(), player.getUniqueId());
+      SkinData skinData = SkinData.fromProperties(skinProperties).orElse(null);
+      LuckPermsData luckPermsData = LuckPermsUtil.getLuckPermsData(runtimeConfig.config(), player.getUniqueId());
 
-      if (plugin.getConfig().isDebug()) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player joined: %s (%s), session: %s, groups: %s".formatted(player.getName(), player.getUniqueId(), sessionId, luckPermsData != null ? luckPermsData.getGroupsList() : null));
       }
 
@@ -137,8 +147,13 @@ public class PlayerListener implements Listener {
 
   @EventHandler(priority = EventPriority.HIGHEST)
   public void onPlayerDisconnect(PlayerDisconnectEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.LEAVE_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.LEAVE_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player quit event ignored - LEAVE events disabled");
       }
       return;
@@ -147,29 +162,22 @@ public class PlayerListener implements Listener {
     ProxiedPlayer player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.removeSession(player.getUniqueId());
 
-    // Process event asynchronously to avoid blocking main thread
-    scheduler.runAsync(() -> {
-      if (session != null) {
-        if (plugin.getConfig().isDebug()) {
-          log.info("[DEBUG] Player quit: %s (%s), session: %s".formatted(player.getName(), player.getUniqueId(), session.sessionId()));
-        }
-        PlayerLeaveData data = PlayerLeaveData.newBuilder()
-          .setSessionId(session.sessionId().toString())
-          .build();
-
-        MineAdsEvent protoEvent = TypeUtil.createLeaveEvent(data);
-
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Player quit: %s - no active session found".formatted(player.getName()));
-      }
-    });
+    if (session != null) {
+      plugin.getEventCapture().publish(new EventCapture.Leave(session.sessionId(), player.getName(), player.getUniqueId()));
+    } else if (runtimeConfig.isDebug()) {
+      log.info("[DEBUG] Player quit: %s - no active session found".formatted(player.getName()));
+    }
   }
 
   @EventHandler(priority = EventPriority.HIGHEST)
   public void onSettingsChanged(SettingsChangedEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.SETTINGS_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.SETTINGS_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player settings event ignored - PLAYER_SETTINGS events disabled");
       }
       return;
@@ -178,40 +186,34 @@ public class PlayerListener implements Listener {
     ProxiedPlayer player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
 
-    scheduler.runAsync(() -> {
-      if (session == null) {
-        if (plugin.getConfig().isDebug()) {
-          log.info("[DEBUG] Player settings ignored: %s - no active session".formatted(player.getName()));
-        }
-        return;
-      }
-
-      PlayerSettingsData.Builder builder = PlayerSettingsData.newBuilder()
-        .setSessionId(session.sessionId().toString())
-        .setViewDistance(player.getViewDistance())
-        .setChatMode(player.getChatMode().name())
-        .setChatColors(player.hasChatColors())
-        .setMainHand(player.getMainHand().name());
-
-      Locale locale = player.getLocale();
-      if (locale != null) {
-        builder.setLocale(locale.toLanguageTag());
+    if (session == null) {
+      if (runtimeConfig.isDebug()) {
+        log.info("[DEBUG] Player settings ignored: %s - no active session".formatted(player.getName()));
       }
+      return;
+    }
 
-      PlayerSettingsData data = builder.build();
-      if (session.markSettingsSentIfFirst()) {
-        MineAdsEvent protoEvent = TypeUtil.createPlayerSettingsEvent(data);
-
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Skipping duplicate player settings event for session " + session.sessionId());
-      }
-    });
+    Locale locale = player.getLocale();
+    plugin.getEventCapture().publish(new EventCapture.Settings(
+      session,
+      locale != null ? locale.toLanguageTag() : null,
+      player.getViewDistance(),
+      player.getChatMode().name(),
+      player.hasChatColors(),
+      player.getMainHand().name(),
+      null,
+      null
+    ));
   }
 
   @EventHandler(priority = EventPriority.HIGHEST)
   public void onPluginMessage(PluginMessageEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.CLIENT_BRAND_DATA)) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.CLIENT_BRAND_DATA)) {
       return;
     }
 
@@ -225,7 +227,7 @@ public class PlayerListener implements Listener {
 
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
     if (session == null) {
-      if (plugin.getConfig().isDebug()) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Client brand ignored: %s - no active session".formatted(player.getName()));
       }
       return;
@@ -233,13 +235,13 @@ public class PlayerListener implements Listener {
 
     scheduler.runAsync(() -> {
       if (!session.markBrandSentIfFirst()) {
-        if (plugin.getConfig().isDebug()) {
+        if (runtimeConfig.isDebug()) {
           log.info("[DEBUG] Skipping duplicate client brand event for session " + session.sessionId());
         }
         return;
       }
 
-      String clientBrand = decodeClientBrand(event.getData());
+      String clientBrand = decodeClientBrand(event.getData(), runtimeConfig);
       if (clientBrand == null || clientBrand.isBlank()) {
         return;
       }
@@ -256,6 +258,11 @@ public class PlayerListener implements Listener {
 
   @EventHandler(priority = EventPriority.HIGHEST)
   public void onChat(ChatEvent event) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
     if (event.isCancelled()) {
       return;
     }
@@ -266,63 +273,29 @@ public class PlayerListener implements Listener {
 
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
     if (session == null) {
-      if (plugin.getConfig().isDebug()) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Chat event ignored: %s - no active session".formatted(player.getName()));
       }
       return;
     }
 
     boolean isCommand = event.isCommand() || event.isProxyCommand();
-    boolean isChatEnabled = isEventEnabled(MineAdsEvent.DataCase.CHAT_DATA);
-    boolean isCommandEnabled = isEventEnabled(MineAdsEvent.DataCase.COMMAND_DATA);
-
-    // Process event asynchronously to avoid blocking main thread
-    scheduler.runAsync(() -> {
-      if (isCommand) {
-        if (isCommandEnabled) {
-          if (plugin.getConfig().isDebug()) {
-            String command = event.getMessage().substring(0, Math.min(50, event.getMessage().length())) + (event.getMessage().length() > 50 ? "..." : "");
-            log.info("[DEBUG] Player command: %s - %s".formatted(player.getName(), command));
-          }
-          PlayerCommandData.Builder dataBuilder = TypeUtil.createCommandDataBuilder(
-            session.sessionId().toString(),
-            event.getMessage(),
-            true,
-            plugin.getConfig().getDefaultMaxCommandArgs(),
-            plugin.getConfig().getCommandArgLimits()
-          );
-
-          PlayerCommandData data = dataBuilder.build();
-
-          MineAdsEvent protoEvent = TypeUtil.createCommandEvent(data);
-
-          plugin.getBatchProcessor().addEvent(protoEvent);
-        } else if (plugin.getConfig().isDebug()) {
-          log.info("[DEBUG] Player command event ignored - COMMAND events disabled");
-        }
-      } else {
-        if (isChatEnabled) {
-          if (plugin.getConfig().isDebug()) {
-            String message = event.getMessage().substring(0, Math.min(50, event.getMessage().length())) + (event.getMessage().length() > 50 ? "..." : "");
-            log.info("[DEBUG] Player chat: %s - %s".formatted(player.getName(), message));
-          }
-          PlayerChatData.Builder dataBuilder = PlayerChatData.newBuilder()
-            .setSessionId(session.sessionId().toString());
-
-          if (!plugin.getConfig().isDisableChatContent()) {
-            dataBuilder.setMessage(event.getMessage());
-          }
-
-          PlayerChatData data = dataBuilder.build();
-
-          MineAdsEvent protoEvent = TypeUtil.createChatEvent(data);
-
-          plugin.getBatchProcessor().addEvent(protoEvent);
-        } else if (plugin.getConfig().isDebug()) {
-          log.info("[DEBUG] Player chat event ignored - CHAT events disabled");
-        }
+    boolean isChatEnabled = runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.CHAT_DATA);
+    boolean isCommandEnabled = runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.COMMAND_DATA);
+
+    if (isCommand) {
+      if (isCommandEnabled) {
+        plugin.getEventCapture().publish(new EventCapture.Command(session.sessionId(), player.getName(), event.getMessage(), true));
+      } else if (runtimeConfig.isDebug()) {
+        log.info("[DEBUG] Player command event ignored - COMMAND events disabled");
       }
-    });
+    } else {
+      if (isChatEnabled) {
+        plugin.getEventCapture().publish(new EventCapture.Chat(session.sessionId(), player.getName(), event.getMessage()));
+      } else if (runtimeConfig.isDebug()) {
+        log.info("[DEBUG] Player chat event ignored - CHAT events disabled");
+      }
+    }
   }
 
   private boolean isBrandTag(String tag) {
@@ -333,32 +306,25 @@ public class PlayerListener implements Listener {
     return normalized.equals("minecraft:brand") || normalized.equals("mc|brand");
   }
 
-  private String decodeClientBrand(byte[] data) {
+  private String decodeClientBrand(byte[] data, RuntimeConfig runtimeConfig) {
     try (DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data))) {
       return inputStream.readUTF();
     } catch (IOException exception) {
-      if (plugin.getConfig().isDebug()) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Failed to decode client brand: " + exception.getMessage());
       }
       return null;
     }
   }
 
-  private boolean isEventEnabled(MineAdsEvent.DataCase eventType) {
-    return plugin.getConfig().isEventEnabled(eventType);
-  }
-
-  private SkinData extractSkinData(LoginResult loginProfile) {
+  private List<SkinProperty> extractSkinProperties(LoginResult loginProfile) {
     if (loginProfile == null || loginProfile.getProperties() == null) {
-      return null;
+      return List.of();
     }
 
     return Arrays.stream(loginProfile.getProperties())
       .map(property -> SkinProperty.tryParse(property.getName(), property.getValue(), property.getSignature()))
       .flatMap(Optional::stream)
-      .map(SkinData::fromProperty)
-      .flatMap(Optional::stream)
-      .findFirst()
-      .orElse(null);
+      .toList();
   }
 }
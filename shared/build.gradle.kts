@@ -15,6 +15,7 @@ dependencies {
   compileOnly(libs.gson)
   compileOnly(libs.spotbugs.annotations)
   implementation(libs.protobuf.java)
+  implementation(libs.aircompressor)
 
   implementation(libs.cloud.core)
   implementation(libs.cloud.annotations)
@@ -21,7 +21,10 @@ import de.exlll.configlib.YamlConfigurations;
 import gg.mineads.monitor.shared.command.MineAdsCommandManager;
 import gg.mineads.monitor.shared.config.Config;
 import gg.mineads.monitor.shared.config.ConfigErrorType;
+import gg.mineads.monitor.shared.config.RuntimeConfig;
 import gg.mineads.monitor.shared.event.BatchProcessor;
+import gg.mineads.monitor.shared.event.EventCapture;
+import gg.mineads.monitor.shared.scheduler.PipelineScheduler;
 import gg.mineads.monitor.shared.update.UpdateChecker;
 import gg.mineads.monitor.shared.session.SessionHeartbeatTask;
 import lombok.Getter;
@@ -42,7 +45,12 @@ public class MineAdsMonitorPlugin {
   @Getter
   private final BatchProcessor batchProcessor;
   @Getter
-  private Config config;
+  private final EventCapture eventCapture;
+  // Replaced as a whole on every load, so readers see either the old or the new config
+  @Getter
+  private volatile RuntimeConfig runtimeConfig;
+  @Getter
+  private PipelineScheduler scheduler;
   @Getter
   private boolean initialized = false;
   @Setter
@@ -51,7 +59,8 @@ public class MineAdsMonitorPlugin {
 
   public MineAdsMonitorPlugin(AbstractMineAdsMonitorBootstrap bootstrap) {
     this.bootstrap = bootstrap;
-    this.batchProcessor = new BatchProcessor(this, bootstrap.getScheduler(), bootstrap.getDataFolder());
+    this.batchProcessor = new BatchProcessor(this, bootstrap.getDataFolder());
+    this.eventCapture = new EventCapture(this);
   }
 
   public void onEnable() {
@@ -59,7 +68,7 @@ public class MineAdsMonitorPlugin {
       // Load configuration
       loadConfig();
 
-      if (config != null && config.isDebug()) {
+      if (isDebug()) {
         log.info("[DEBUG] Starting plugin enable process");
       }
 
@@ -78,7 +87,7 @@ public class MineAdsMonitorPlugin {
       if (error != null) {
         logConfigurationError(error);
         log.info("[MineAdsMonitor] Plugin partially enabled - commands available but core services disabled due to config issues");
-      } else if (config != null && config.isDebug()) {
+      } else if (isDebug()) {
         log.info("[DEBUG] Configuration loaded successfully");
       }
 
@@ -92,7 +101,7 @@ public class MineAdsMonitorPlugin {
 
   public void onDisable() {
     try {
-      if (config != null && config.isDebug()) {
+      if (isDebug()) {
         log.info("[DEBUG] Starting plugin disable process");
       }
 
@@ -115,8 +124,11 @@ public class MineAdsMonitorPlugin {
    */
   private void loadConfig() {
     Path configPath = bootstrap.getDataFolder().resolve("config.yml");
-    config = YamlConfigurations.update(configPath, Config.class);
-    if (config != null && config.isDebug()) {
+    Config config = YamlConfigurations.update(configPath, Config.class);
+    if (config != null) {
+      runtimeConfig = RuntimeConfig.compile(config);
+    }
+    if (isDebug()) {
       log.info("[DEBUG] Configuration file loaded from: " + configPath.toAbsolutePath());
     }
 
@@ -128,7 +140,7 @@ public class MineAdsMonitorPlugin {
       String newConfigContent = outputStream.toString(StandardCharsets.UTF_8);
       if (!currentConfigContent.equals(newConfigContent)) {
         Files.writeString(configPath, newConfigContent);
-        if (config != null && config.isDebug()) {
+        if (isDebug()) {
           log.info("[DEBUG] Configuration file updated with new defaults");
         }
       }
@@ -137,46 +149,44 @@ public class MineAdsMonitorPlugin {
     }
   }
 
+  public Config getConfig() {
+    RuntimeConfig current = runtimeConfig;
+    return current != null ? current.config() : null;
+  }
+
   public boolean hasConfigIssues() {
     return validateConfiguration() != null;
   }
 
   /**
-   * Validate that required configuration is present
+   * Validate that required configuration is present. The result is worked out once per load.
    */
   private ConfigErrorType validateConfiguration() {
-    if (config == null || config.getPluginKey() == null || config.getPluginKey().isEmpty()) {
-      return ConfigErrorType.PLUGIN_KEY_MISSING;
-    }
-    if (!config.getPluginKey().startsWith("pluginkey_")) {
-      return ConfigErrorType.PLUGIN_KEY_INVALID_FORMAT;
-    }
-    if (!isValidServerId(config.getServerId())) {
-      return ConfigErrorType.SERVER_ID_INVALID_FORMAT;
-    }
-    return null; // No error
+    RuntimeConfig current = runtimeConfig;
+    return current != null ? current.error() : ConfigErrorType.PLUGIN_KEY_MISSING;
   }
 
-  private boolean isValidServerId(String serverId) {
-    if (serverId == null || serverId.isEmpty()) {
-      return false;
-    }
-    // Only allow lowercase letters, numbers, and dashes
-    return serverId.matches("^[a-z0-9-]+$");
+  private boolean isDebug() {
+    RuntimeConfig current = runtimeConfig;
+    return current != null && current.isDebug();
   }
 
   /**
    * Initialize core services
    */
   private void initializeCoreServices() {
-    bootstrap.getScheduler().scheduleAsync(batchProcessor, 10, 10, TimeUnit.SECONDS);
+    // The platform scheduler is only usable after initializePlatform()
+    scheduler = new PipelineScheduler(bootstrap.getScheduler());
+    batchProcessor.start(scheduler);
+    eventCapture.start(scheduler);
+    scheduler.scheduleAsync(batchProcessor, 10, 10, TimeUnit.SECONDS);
 
-    if (config != null && config.isDebug()) {
+    if (isDebug()) {
       log.info("[DEBUG] Batch processor scheduled to run every 10 seconds");
     }
 
     // Emit heartbeats for active sessions to bound sessions on crashes
-    bootstrap.getScheduler().scheduleAsync(
+    scheduler.scheduleAsync(
       new SessionHeartbeatTask(this, bootstrap.getPlayerOnlineChecker()),
       10,
       60,
@@ -191,7 +201,7 @@ public class MineAdsMonitorPlugin {
 
     // Register platform-specific listeners
     bootstrap.registerListeners(this);
-    if (config != null && config.isDebug()) {
+    if (isDebug()) {
       log.info("[DEBUG] Event listeners registered");
     }
   }
@@ -200,7 +210,11 @@ public class MineAdsMonitorPlugin {
    * Shutdown core services
    */
   private void shutdownCoreServices() {
+    eventCapture.flush(); // Stage captured events before the batch processor stops
     batchProcessor.shutdown(); // Flush and close durable queue
+    if (scheduler != null) {
+      scheduler.shutdown(); // Let in-flight event tasks finish
+    }
   }
 
   /**
@@ -213,7 +227,7 @@ public class MineAdsMonitorPlugin {
       loadConfig();
 
       // Validate the new configuration
-      ConfigErrorType error = validateConfig(config);
+      ConfigErrorType error = validateConfiguration();
       if (error != null) {
         logConfigurationError(error, true);
         return false;
@@ -227,22 +241,6 @@ public class MineAdsMonitorPlugin {
     }
   }
 
-  /**
-   * Validate that required configuration is present
-   */
-  private ConfigErrorType validateConfig(Config config) {
-    if (config == null || config.getPluginKey() == null || config.getPluginKey().isEmpty()) {
-      return ConfigErrorType.PLUGIN_KEY_MISSING;
-    }
-    if (!config.getPluginKey().startsWith("pluginkey_")) {
-      return ConfigErrorType.PLUGIN_KEY_INVALID_FORMAT;
-    }
-    if (!isValidServerId(config.getServerId())) {
-      return ConfigErrorType.SERVER_ID_INVALID_FORMAT;
-    }
-    return null; // No error
-  }
-
   /**
    * Log configuration error messages
    */
@@ -47,11 +47,23 @@ public class Config {
   @Comment("Default maximum number of command arguments to send. Set to 0 for no arguments (empty list), 1 for just the command name, or higher for more arguments. Default is 1.")
   private int defaultMaxCommandArgs = 1;
 
-  @Comment("Override the default max arguments for specific commands. Map of command name to max arguments. Command names should not include the leading slash.")
+  @Comment("Override the default max arguments for specific commands. Map of command name to max arguments. Command names should not include the leading slash. Names are matched case-insensitively, and a namespaced command like 'essentials:warp' uses the limit for 'warp' unless it has its own entry.")
   private Map<String, Integer> commandArgLimits = Map.of(
     "warp", 2
   );
 
+  @Comment("Advanced settings for how staged events are grouped into batches. Batch size adapts between the limits below based on upload latency and server responses.")
+  private Batching batching = new Batching();
+
+  @Comment("Advanced settings for how batched events are delivered to MineAds. The defaults suit most servers.")
+  private Delivery delivery = new Delivery();
+
+  @Comment("Settings for the on-disk queue that holds batches until MineAds has received them.")
+  private DurableQueue durableQueue = new DurableQueue();
+
+  @Comment("Limits on how much memory and disk buffered events may use, for example during a long outage. As usage approaches a limit, chat message content is dropped first, then chat, command and heartbeat events, and at the limit every event except transactions. Transactions are never dropped.")
+  private LoadShedding loadShedding = new LoadShedding();
+
   // Should be last
   @Comment("Enable debug logging for batch processing events. Useful for troubleshooting.")
   private boolean debug = false;
@@ -73,6 +85,93 @@ public class Config {
     };
   }
 
+  @Getter
+  @Configuration
+  public static class Batching {
+    @Comment("Target compressed size in bytes of a single batch. Batches are closed early when the next event would exceed it.")
+    private int targetBatchBytes = 65536;
+
+    @Comment("Lower bound for the adaptive number of events per batch.")
+    private int minBatchEvents = 20;
+
+    @Comment("Upper bound for the adaptive number of events per batch.")
+    private int maxBatchEvents = 1000;
+
+    @Comment("Uploads slower than this many milliseconds shrink the batch size, faster ones grow it.")
+    private long targetLatencyMillis = 1000;
+
+    @Comment("Maximum time in milliseconds an event waits in staging before it is flushed, even if the batch is not full. Set to 0 to only flush full batches and on the regular 10 second tick.")
+    private long lingerMillis = 2000;
+
+    @Comment("Staged events are flushed early once their uncompressed size reaches this many bytes.")
+    private long lingerBytes = 262144;
+  }
+
+  @Getter
+  @Configuration
+  public static class Delivery {
+    @Comment("Maximum number of stored batches uploaded concurrently while draining the durable queue. Higher values drain a backlog faster after an outage.")
+    private int maxInFlightBatches = 4;
+
+    @Comment("Maximum number of events from consecutive stored batches combined into a single upload.")
+    private int maxEventsPerRequest = 2000;
+
+    @Comment("Maximum compressed size in bytes of consecutive stored batches combined into a single upload.")
+    private int maxBytesPerRequest = 1048576;
+
+    @Comment("Compression for new batches: GZIP or ZSTD. If the endpoint rejects ZSTD, uploads fall back to GZIP until the next restart.")
+    private CompressionCodec compression = CompressionCodec.GZIP;
+
+    @Comment("Consecutive failed uploads (network errors, throttling or server errors) after which uploads are paused and the endpoint is probed with a single batch until it recovers. Stored batches do not use up retry attempts while paused.")
+    private int circuitBreakerFailureThreshold = 3;
+
+    @Comment("Maximum time in milliseconds between probes while uploads are paused. The interval starts at 5 seconds and doubles after every failed probe.")
+    private long circuitBreakerMaxProbeIntervalMillis = 300000;
+
+    @Comment("Maximum number of uploads per second. 0 disables the limit.")
+    private int maxRequestsPerSecond = 10;
+
+    @Comment("Maximum number of compressed bytes uploaded per second. 0 disables the limit.")
+    private long maxBytesPerSecond = 5242880;
+  }
+
+  @Getter
+  @Configuration
+  public static class DurableQueue {
+    @Comment("How appended batches are synced to disk. GROUP_COMMIT (default) syncs several batches at once within a bounded time window. ALWAYS syncs after every batch. NONE leaves syncing to the operating system.")
+    private DurabilityMode durability = DurabilityMode.GROUP_COMMIT;
+
+    @Comment("GROUP_COMMIT only: maximum time in milliseconds before an appended batch is synced to disk.")
+    private long commitIntervalMillis = 1000;
+
+    @Comment("GROUP_COMMIT only: number of appended batches that triggers a sync before the interval has passed.")
+    private int commitBatchCount = 16;
+  }
+
+  @Getter
+  @Configuration
+  public static class LoadShedding {
+    @Comment("Maximum number of events waiting to be written to the durable queue, across all lanes. 0 disables the limit.")
+    private int maxStagedEvents = 20000;
+
+    @Comment("Maximum estimated heap in bytes used by the durable queue, including batches kept in memory after a failed disk write. 0 disables the limit.")
+    private long maxQueueHeapBytes = 33554432;
+
+    @Comment("Maximum size in bytes of the durable queue on disk, across all lanes. 0 disables the limit.")
+    private long maxSpoolBytes = 268435456;
+  }
+
+  public enum CompressionCodec {
+    GZIP,
+    ZSTD
+  }
+
+  public enum DurabilityMode {
+    NONE,
+    GROUP_COMMIT,
+    ALWAYS
+  }
+
   public enum EventListMode {
     BLACKLIST,
     WHITELIST
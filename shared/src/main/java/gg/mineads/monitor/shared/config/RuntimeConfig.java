@@ -0,0 +1,97 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.config;
+
+import gg.mineads.monitor.shared.event.CommandArgLimits;
+import gg.mineads.monitor.shared.event.generated.MineAdsEvent;
+
+import java.util.regex.Pattern;
+
+/**
+ * Immutable view of a loaded {@link Config} with everything the event hot paths need already worked out: the
+ * validation result, the event filter as a lookup table and the compiled command argument limits.
+ *
+ * <p>A new snapshot is compiled on every load and published with a single volatile write, so a reload never exposes a
+ * half-updated config. Hot paths read the snapshot once per event.
+ */
+public final class RuntimeConfig {
+  private static final Pattern SERVER_ID_PATTERN = Pattern.compile("^[a-z0-9-]+$");
+  private static final MineAdsEvent.DataCase[] DATA_CASES = MineAdsEvent.DataCase.values();
+
+  private final Config config;
+  private final ConfigErrorType error;
+  private final boolean[] enabledEvents;
+  private final CommandArgLimits commandArgLimits;
+  private final boolean debug;
+
+  private RuntimeConfig(Config config) {
+    this.config = config;
+    this.error = validate(config);
+    this.enabledEvents = new boolean[DATA_CASES.length];
+    for (MineAdsEvent.DataCase dataCase : DATA_CASES) {
+      enabledEvents[dataCase.ordinal()] = config.isEventEnabled(dataCase);
+    }
+    this.commandArgLimits = CommandArgLimits.compile(config.getDefaultMaxCommandArgs(), config.getCommandArgLimits());
+    this.debug = config.isDebug();
+  }
+
+  public static RuntimeConfig compile(Config config) {
+    return new RuntimeConfig(config);
+  }
+
+  public Config config() {
+    return config;
+  }
+
+  /**
+   * @return the first problem that keeps core services from running, or null if the config is valid
+   */
+  public ConfigErrorType error() {
+    return error;
+  }
+
+  public boolean hasIssues() {
+    return error != null;
+  }
+
+  public boolean isEventEnabled(MineAdsEvent.DataCase eventType) {
+    return enabledEvents[eventType.ordinal()];
+  }
+
+  public CommandArgLimits commandArgLimits() {
+    return commandArgLimits;
+  }
+
+  public boolean isDebug() {
+    return debug;
+  }
+
+  private static ConfigErrorType validate(Config config) {
+    if (config.getPluginKey() == null || config.getPluginKey().isEmpty()) {
+      return ConfigErrorType.PLUGIN_KEY_MISSING;
+    }
+    if (!config.getPluginKey().startsWith("pluginkey_")) {
+      return ConfigErrorType.PLUGIN_KEY_INVALID_FORMAT;
+    }
+    // Only allow lowercase letters, numbers, and dashes
+    if (config.getServerId() == null || !SERVER_ID_PATTERN.matcher(config.getServerId()).matches()) {
+      return ConfigErrorType.SERVER_ID_INVALID_FORMAT;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.config.Config;
+import lombok.extern.java.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Decides how many staged events go into one batch.
+ *
+ * <p>The event limit follows AIMD: it grows by a fixed step after every upload the server accepted within the target
+ * latency, and is halved after slow uploads, rejected bodies, throttling, server errors and network failures. Only
+ * uploads of a single stored batch are sampled, as those match the size this class decides.
+ * A batch is also closed once its estimated compressed size reaches the byte target. The estimate uses a moving
+ * average of the compression ratio of previous batches.
+ */
+@Log
+final class AdaptiveBatchSizer {
+  static final int INITIAL_EVENT_LIMIT = 100;
+  private static final int INCREASE_STEP = 10;
+  private static final double INITIAL_COMPRESSION_RATIO = 0.5;
+  private static final double RATIO_SMOOTHING = 0.2;
+  private static final Config.Batching DEFAULT_SETTINGS = new Config.Batching();
+
+  private final Supplier<Config> configSupplier;
+  // Kept clamped to the configured bounds; read without locking for every staged event
+  private volatile int eventLimit = INITIAL_EVENT_LIMIT;
+  private double compressionRatio = INITIAL_COMPRESSION_RATIO;
+
+  AdaptiveBatchSizer(Supplier<Config> configSupplier) {
+    this.configSupplier = configSupplier;
+  }
+
+  int eventLimit() {
+    return eventLimit;
+  }
+
+  /**
+   * Uncompressed bytes that are expected to compress to the target batch size.
+   */
+  synchronized long uncompressedByteBudget() {
+    return (long) (Math.max(1, settings().getTargetBatchBytes()) / compressionRatio);
+  }
+
+  synchronized void recordBatch(int uncompressedBytes, int compressedBytes) {
+    if (uncompressedBytes <= 0 || compressedBytes <= 0) {
+      return;
+    }
+    double ratio = Math.min(1.0, (double) compressedBytes / uncompressedBytes);
+    compressionRatio += RATIO_SMOOTHING * (ratio - compressionRatio);
+  }
+
+  /**
+   * @param statusCode HTTP status of the upload, or -1 if it failed without a response
+   * @param accepted   whether the parsed response reported success
+   */
+  synchronized void recordUpload(long latencyNanos, int statusCode, boolean accepted) {
+    Config.Batching settings = settings();
+    int previous = clamp(eventLimit, settings);
+    boolean succeeded = statusCode >= 200 && statusCode < 300 && accepted;
+    boolean slow = TimeUnit.NANOSECONDS.toMillis(latencyNanos) > settings.getTargetLatencyMillis();
+
+    if (succeeded && !slow) {
+      eventLimit = clamp(previous + INCREASE_STEP, settings);
+    } else if (succeeded || statusCode == 413 || statusCode == 429 || statusCode >= 500 || statusCode < 0) {
+      eventLimit = clamp(previous / 2, settings);
+    } else {
+      // Other client errors and rejected events in an accepted request say nothing about the batch size
+      eventLimit = previous;
+    }
+
+    Config config = configSupplier.get();
+    if (config != null && config.isDebug() && eventLimit != previous) {
+      log.info("[DEBUG] Adjusted batch size from " + previous + " to " + eventLimit + " events (status " + statusCode
+        + ", " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms)");
+    }
+  }
+
+  private Config.Batching settings() {
+    Config config = configSupplier.get();
+    return config != null && config.getBatching() != null ? config.getBatching() : DEFAULT_SETTINGS;
+  }
+
+  private static int clamp(int limit, Config.Batching settings) {
+    int min = Math.max(1, settings.getMinBatchEvents());
+    int max = Math.max(min, settings.getMaxBatchEvents());
+    return Math.max(min, Math.min(max, limit));
+  }
+}
@@ -17,7 +17,6 @@
  */
 package gg.mineads.monitor.shared.event;
 
-import com.google.protobuf.InvalidProtocolBufferException;
 import gg.mineads.monitor.shared.MineAdsMonitorPlugin;
 import gg.mineads.monitor.shared.config.Config;
 import gg.mineads.monitor.shared.event.generated.EventBatch;
@@ -28,42 +27,58 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import gg.mineads.monitor.shared.scheduler.MineAdsScheduler;
 import lombok.extern.java.Log;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.stream.Stream;
 
 @Log
 @SuppressFBWarnings(value = "EI2", justification = "BatchProcessor must retain the plugin reference to read configuration and schedule work.")
 public class BatchProcessor implements Runnable {
-  private static final int BATCH_SIZE_THRESHOLD = 100;
   private static final int MAX_RETRY_ATTEMPTS = 5;
   private static final long INITIAL_RETRY_DELAY_MS = 1000; // 1 second
   private static final long MAX_RETRY_DELAY_MS = 30000; // 30 seconds
+  private static final long MAX_RETRY_AFTER_MS = TimeUnit.MINUTES.toMillis(15);
   private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final long SHUTDOWN_FLUSH_TIMEOUT_MS = 5000;
+  private static final Config.Batching DEFAULT_BATCHING = new Config.Batching();
+  private static final Config.Delivery DEFAULT_DELIVERY = new Config.Delivery();
 
-  private final Queue<MineAdsEvent> stagingEvents = new ConcurrentLinkedQueue<>();
+  // Indexed by EventLane ordinal, highest priority first
+  private final Lane[] lanes;
+  private final AtomicLong droppedStagedEvents = new AtomicLong();
   private final MineAdsMonitorPlugin plugin;
-  private final MineAdsScheduler scheduler;
-  private final PersistentBatchQueue durableQueue;
+  private final Path queueDir;
+  private final AdaptiveBatchSizer batchSizer;
+  private final CircuitBreaker circuitBreaker;
+  private final UploadRateLimiter rateLimiter;
+  private final LoadShedder loadShedder;
+  private final EventBatchWriter stagingWriter = new EventBatchWriter();
+  // Set by start(), once the platform scheduler is usable, along with the durable queue of each lane
+  private volatile MineAdsScheduler scheduler;
   private final HttpClient httpClient = HttpClient.newBuilder()
     .version(HttpClient.Version.HTTP_2)
     .connectTimeout(Duration.ofSeconds(10))
@@ -71,14 +86,71 @@ public class BatchProcessor implements Runnable {
 
   private final ReentrantLock stagingLock = new ReentrantLock();
   private final AtomicBoolean stagingProcessing = new AtomicBoolean(false);
+  // A single linger timer covers every event staged while it is armed
+  private final AtomicBoolean lingerTimerArmed = new AtomicBoolean(false);
+  private volatile boolean lingerExpired = false;
   private final AtomicBoolean sendLoopRunning = new AtomicBoolean(false);
-  private final Map<Long, Integer> attemptOverrides = new ConcurrentHashMap<>();
-  private final Map<Long, byte[]> payloadOverrides = new ConcurrentHashMap<>();
+  private volatile long retryNotBeforeMillis = 0;
+  // Set once the endpoint answered 415 to a zstd upload
+  private volatile boolean zstdRejected = false;
 
-  public BatchProcessor(MineAdsMonitorPlugin plugin, MineAdsScheduler scheduler, Path dataFolder) {
+  public BatchProcessor(MineAdsMonitorPlugin plugin, Path dataFolder) {
     this.plugin = plugin;
+    this.queueDir = dataFolder.resolve("queue");
+    this.batchSizer = new AdaptiveBatchSizer(plugin::getConfig);
+    this.circuitBreaker = new CircuitBreaker(plugin::getConfig);
+    this.rateLimiter = new UploadRateLimiter(plugin::getConfig);
+    this.loadShedder = new LoadShedder(plugin::getConfig);
+    this.lanes = new Lane[EventLane.all().length];
+    for (EventLane type : EventLane.all()) {
+      lanes[type.ordinal()] = new Lane(type);
+    }
+  }
+
+  /**
+   * Opens the durable queue of every lane. Stored batches are restored in the background, so this does not block
+   * startup.
+   */
+  public void start(MineAdsScheduler scheduler) {
+    if (this.scheduler != null) {
+      return;
+    }
+    migrateUnlanedQueue();
+    for (Lane lane : lanes) {
+      lane.durableQueue = new PersistentBatchQueue(queueDir.resolve(lane.type.directoryName()), scheduler, plugin::getConfig);
+    }
     this.scheduler = scheduler;
-    this.durableQueue = new PersistentBatchQueue(dataFolder.resolve("queue"), scheduler, BATCH_SIZE_THRESHOLD);
+  }
+
+  /**
+   * Moves a durable queue written before events were split into lanes into the bulk lane, which then drains it.
+   */
+  private void migrateUnlanedQueue() {
+    if (!Files.isDirectory(queueDir)) {
+      return;
+    }
+
+    List<Path> files;
+    try (Stream<Path> stream = Files.list(queueDir)) {
+      files = stream.filter(Files::isRegularFile).toList();
+    } catch (IOException e) {
+      log.warning("Failed to list the durable queue directory: " + e.getMessage());
+      return;
+    }
+    if (files.isEmpty()) {
+      return;
+    }
+
+    Path bulkDir = queueDir.resolve(EventLane.BULK.directoryName());
+    try {
+      Files.createDirectories(bulkDir);
+      for (Path file : files) {
+        Files.move(file, bulkDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+      }
+      log.info("Moved " + files.size() + " durable queue files into the " + EventLane.BULK.directoryName() + " lane");
+    } catch (IOException e) {
+      log.warning("Failed to move the durable queue into the " + EventLane.BULK.directoryName() + " lane: " + e.getMessage());
+    }
   }
 
   @Override
@@ -90,7 +162,12 @@ public class BatchProcessor implements Runnable {
       return;
     }
 
-    if (!stagingEvents.isEmpty()) {
+    updateStorageUsage();
+    loadShedder.report();
+
+    if (hasStagedEvents()) {
+      // The periodic tick flushes everything, same as an expired linger timer
+      lingerExpired = true;
       processStagingAsync();
     } else {
       kickSendLoop();
@@ -98,28 +175,140 @@ public class BatchProcessor implements Runnable {
   }
 
   public void shutdown() {
+    if (scheduler == null) {
+      return;
+    }
+
     try {
-      processStagingAsync();
+      flushStagingForShutdown();
+    } finally {
+      for (Lane lane : lanes) {
+        lane.durableQueue.close();
+      }
+    }
+  }
+
+  /**
+   * Moves every staged event into the durable queue before it is closed, so a clean stop loses nothing.
+   */
+  private void flushStagingForShutdown() {
+    long deadline = System.currentTimeMillis() + SHUTDOWN_FLUSH_TIMEOUT_MS;
+    while (!stagingProcessing.compareAndSet(false, true)) {
+      if (System.currentTimeMillis() > deadline) {
+        log.warning("Timed out waiting for a staging flush, " + stagedEventCount() + " staged events were not persisted");
+        return;
+      }
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+
+    try {
+      for (Lane lane : lanes) {
+        while (!lane.stagingEvents.isEmpty()) {
+          if (!flushStaging(lane)) {
+            break;
+          }
+        }
+      }
     } finally {
-      durableQueue.close();
+      stagingProcessing.set(false);
     }
   }
 
   public void addEvent(MineAdsEvent event) {
-    stagingEvents.add(event);
     Config config = plugin.getConfig();
+    MineAdsEvent staged = loadShedder.apply(event, stagedEventCount(), config);
+    if (staged == null) {
+      return;
+    }
+
+    Lane lane = lanes[EventLane.of(staged).ordinal()];
+    if (!lane.stagingEvents.offer(staged)) {
+      long dropped = droppedStagedEvents.incrementAndGet();
+      if (dropped == 1 || dropped % 1000 == 0) {
+        log.warning("Staging queue of the " + lane.type.directoryName() + " lane is full (" + lane.stagingEvents.capacity() + " events), dropped " + dropped + " events so far");
+      }
+      processIfNecessary(config);
+      return;
+    }
+    lane.stagedBytes.addAndGet(staged.getSerializedSize());
+
     if (config != null && config.isDebug()) {
-      log.info("[DEBUG] Added event to staging queue, new size: " + stagingEvents.size());
+      log.info("[DEBUG] Added event to " + lane.type.directoryName() + " staging queue, new size: " + lane.stagingEvents.size());
     }
-    processIfNecessary();
+    processIfNecessary(config);
+    armLingerTimer(config);
   }
 
-  public void processIfNecessary() {
-    if (stagingEvents.size() >= BATCH_SIZE_THRESHOLD && !stagingProcessing.get()) {
+  private void processIfNecessary(Config config) {
+    if (isBatchReady(config) && !stagingProcessing.get()) {
       processStagingAsync();
     }
   }
 
+  private boolean isBatchReady(Config config) {
+    for (Lane lane : lanes) {
+      if (isBatchReady(lane, config)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isBatchReady(Lane lane, Config config) {
+    int staged = lane.stagingEvents.size();
+    return (staged > 0 && lane.type.flushImmediately()) || staged >= batchSizer.eventLimit()
+      || lane.stagedBytes.get() >= batching(config).getLingerBytes();
+  }
+
+  private boolean hasStagedEvents() {
+    for (Lane lane : lanes) {
+      if (!lane.stagingEvents.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int stagedEventCount() {
+    int count = 0;
+    for (Lane lane : lanes) {
+      count += lane.stagingEvents.size();
+    }
+    return count;
+  }
+
+  private static Config.Batching batching(Config config) {
+    return config != null && config.getBatching() != null ? config.getBatching() : DEFAULT_BATCHING;
+  }
+
+  private static Config.Delivery delivery(Config config) {
+    return config != null && config.getDelivery() != null ? config.getDelivery() : DEFAULT_DELIVERY;
+  }
+
+  /**
+   * Bounds how long staged events wait when traffic is too low to fill a batch.
+   */
+  private void armLingerTimer(Config config) {
+    long lingerMillis = batching(config).getLingerMillis();
+    MineAdsScheduler currentScheduler = scheduler;
+    if (lingerMillis <= 0 || currentScheduler == null || !hasStagedEvents()
+      || lingerTimerArmed.get() || !lingerTimerArmed.compareAndSet(false, true)) {
+      return;
+    }
+    currentScheduler.scheduleAsyncDelayed(this::onLingerExpired, lingerMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void onLingerExpired() {
+    lingerTimerArmed.set(false);
+    lingerExpired = true;
+    processStagingAsync();
+  }
+
   private void processStagingAsync() {
     Config config = plugin.getConfig();
     if (!stagingLock.tryLock()) {
@@ -134,40 +323,84 @@ public class BatchProcessor implements Runnable {
         return;
       }
 
-      scheduler.runAsync(() -> {
-        try {
-          flushStaging();
-        } finally {
-          stagingProcessing.set(false);
-        }
-      });
+      scheduler.runAsync(this::flushReadyBatches);
     } finally {
       stagingLock.unlock();
     }
   }
 
-  private void flushStaging() {
-    Queue<MineAdsEvent> currentEvents = new ConcurrentLinkedQueue<>();
-    int drained = 0;
+  /**
+   * Flushes full batches, or everything that is staged once the linger timer or the periodic tick expired.
+   * Higher priority lanes are flushed first.
+   */
+  private void flushReadyBatches() {
+    Config config = plugin.getConfig();
+    try {
+      boolean flushAll = false;
+      boolean flushed = true;
+      while (flushed) {
+        if (lingerExpired) {
+          lingerExpired = false;
+          flushAll = true;
+        }
+        flushed = false;
+        for (Lane lane : lanes) {
+          if (!lane.stagingEvents.isEmpty() && (flushAll || isBatchReady(lane, config)) && flushStaging(lane)) {
+            flushed = true;
+          }
+        }
+      }
+    } finally {
+      stagingProcessing.set(false);
+    }
+
+    // Triggers that fired while this flush was finishing
+    if (hasStagedEvents() && (lingerExpired || isBatchReady(config))) {
+      processStagingAsync();
+    }
+    armLingerTimer(config);
+  }
 
-    while (!stagingEvents.isEmpty() && drained < BATCH_SIZE_THRESHOLD) {
-      MineAdsEvent event = stagingEvents.poll();
-      if (event != null) {
-        currentEvents.add(event);
-        drained++;
+  /**
+   * Moves one batch of a lane's staged events into its durable queue. The batch is closed at the adaptive event
+   * limit or when the next event would push it past the byte budget, whichever comes first.
+   *
+   * @return false if nothing was stored, either because no event was published yet or because the batch could not
+   * be stored and was put back into staging
+   */
+  private boolean flushStaging(Lane lane) {
+    BoundedMpscBuffer<MineAdsEvent> stagingEvents = lane.stagingEvents;
+    int eventLimit = batchSizer.eventLimit();
+    long byteBudget = batchSizer.uncompressedByteBudget();
+    List<MineAdsEvent> currentEvents = new ArrayList<>(Math.min(eventLimit, stagingEvents.size()));
+    long batchBytes = 0;
+    while (currentEvents.size() < eventLimit) {
+      MineAdsEvent event = stagingEvents.peek();
+      if (event == null) {
+        break;
+      }
+      int eventBytes = event.getSerializedSize();
+      // An event larger than the whole budget still forms a batch of its own
+      if (!currentEvents.isEmpty() && batchBytes + eventBytes > byteBudget) {
+        break;
       }
+      stagingEvents.poll();
+      currentEvents.add(event);
+      batchBytes += eventBytes;
     }
+    int drained = currentEvents.size();
+    lane.stagedBytes.addAndGet(-batchBytes);
 
     Config config = plugin.getConfig();
     if (currentEvents.isEmpty()) {
       if (config != null && config.isDebug()) {
         log.info("[DEBUG] No events to flush to durable queue");
       }
-      return;
+      return false;
     }
 
     if (config != null && config.isDebug()) {
-      log.info("[DEBUG] Flushing batch of " + drained + " events to durable queue");
+      log.info("[DEBUG] Flushing batch of " + drained + " events to the " + lane.type.directoryName() + " durable queue");
       Map<String, Long> eventTypes = currentEvents.stream()
         .collect(Collectors.groupingBy(
           event -> event.getDataCase().name(),
@@ -177,114 +410,411 @@ public class BatchProcessor implements Runnable {
     }
 
     try {
-      byte[] payload = serializeToProtobuf(currentEvents);
-      durableQueue.append(payload, drained);
+      ByteBuffer payload = serializeToProtobuf(currentEvents);
+      int payloadBytes = payload.remaining();
+      lane.durableQueue.append(payload, drained, stagingWriter.lastEventIndex());
+      updateStorageUsage();
       if (config != null && config.isDebug()) {
-        log.info("[DEBUG] Appended batch (" + drained + " events, " + payload.length + " bytes) to the durable queue");
+        log.info("[DEBUG] Appended batch (" + drained + " events, " + payloadBytes + " bytes) to the durable queue");
       }
       kickSendLoop();
-      // If more remain, schedule another flush
-      processIfNecessary();
+      return true;
     } catch (Exception e) {
       log.severe("Failed to flush batch to durable queue: " + e.getMessage());
-      stagingEvents.addAll(currentEvents);
+      for (MineAdsEvent event : currentEvents) {
+        if (stagingEvents.offer(event)) {
+          lane.stagedBytes.addAndGet(event.getSerializedSize());
+        } else {
+          droppedStagedEvents.incrementAndGet();
+        }
+      }
+      return false;
     }
   }
 
   private void kickSendLoop() {
+    if (System.currentTimeMillis() < retryNotBeforeMillis) {
+      // A retry backoff is pending; the delayed kick will resume draining
+      return;
+    }
+
     if (sendLoopRunning.compareAndSet(false, true)) {
       scheduler.runAsync(this::drainDurableQueue);
     }
   }
 
+  private void resumeAfterBackoff() {
+    retryNotBeforeMillis = 0;
+    kickSendLoop();
+  }
+
+  /**
+   * Dispatches the next window of uploads. The send loop stays claimed until the window was settled, and settling
+   * starts the next window, so no thread is held while uploads are in flight.
+   */
   private void drainDurableQueue() {
+    boolean dispatched = false;
     try {
-      while (true) {
-        boolean continueLoop = processNextStoredBatch();
-        if (!continueLoop) {
-          break;
-        }
+      dispatched = dispatchNextStoredWindow();
+    } finally {
+      if (!dispatched) {
+        finishSendLoop();
+      }
+    }
+  }
+
+  private void finishSendLoop() {
+    sendLoopRunning.set(false);
+    if (hasStoredBatches()) {
+      kickSendLoop();
+    }
+  }
+
+  private void updateStorageUsage() {
+    if (scheduler == null) {
+      return;
+    }
+
+    long heapBytes = 0;
+    long spoolBytes = 0;
+    for (Lane lane : lanes) {
+      heapBytes += lane.durableQueue.heapBytes();
+      spoolBytes += lane.durableQueue.spoolBytes();
+    }
+    loadShedder.updateStorage(heapBytes, spoolBytes);
+  }
+
+  private boolean hasStoredBatches() {
+    for (Lane lane : lanes) {
+      if (lane.durableQueue.hasMore()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Picks the lane of the next upload by smooth weighted round robin over the lanes with stored batches, so every
+   * lane keeps its share of uploads while the others have a backlog.
+   *
+   * @return the lane, or null if nothing is stored
+   */
+  private Lane nextLaneToSend() {
+    Lane selected = null;
+    int totalWeight = 0;
+    for (Lane lane : lanes) {
+      if (!lane.durableQueue.hasMore()) {
+        lane.currentWeight = 0;
+        continue;
+      }
+      lane.currentWeight += lane.type.weight();
+      totalWeight += lane.type.weight();
+      if (selected == null || lane.currentWeight > selected.currentWeight) {
+        selected = lane;
+      }
+    }
+    if (selected != null) {
+      selected.currentWeight -= totalWeight;
+    }
+    return selected;
+  }
+
+  /**
+   * Sends up to {@code maxInFlightBatches} uploads concurrently and settles them in queue order once all of them
+   * completed. While the circuit breaker is open only a single stored batch is sent, as a probe.
+   *
+   * @return true if a window was dispatched, in which case settling it continues or ends the send loop
+   */
+  private boolean dispatchNextStoredWindow() {
+    Config config = plugin.getConfig();
+    boolean probe = circuitBreaker.isOpen();
+    int windowSize = config == null || probe ? 1 : Math.max(1, delivery(config).getMaxInFlightBatches());
+
+    List<InFlightBatch> window = new ArrayList<>(windowSize);
+    long rateLimitDelayMs = 0;
+    while (window.size() < windowSize) {
+      rateLimitDelayMs = rateLimiter.millisUntilAvailable();
+      if (rateLimitDelayMs > 0) {
+        break;
+      }
+      InFlightBatch inFlight = dispatchStoredBatches(config, probe);
+      if (inFlight == null) {
+        break;
+      }
+      window.add(inFlight);
+    }
+
+    if (window.isEmpty()) {
+      if (rateLimitDelayMs > 0) {
+        pauseSending(rateLimitDelayMs);
+      }
+      return false;
+    }
+
+    if (config != null && config.isDebug() && window.size() > 1) {
+      log.info("[DEBUG] Sending " + window.size() + " uploads of stored batches concurrently");
+    }
+    if (config != null && config.isDebug() && probe) {
+      log.info("[DEBUG] Probing ingest endpoint with a stored batch of " + window.get(0).eventCount() + " events");
+    }
+
+    CompletableFuture<?>[] responses = new CompletableFuture<?>[window.size()];
+    for (int i = 0; i < window.size(); i++) {
+      InFlightBatch inFlight = window.get(i);
+      responses[i] = inFlight.response() != null ? inFlight.response() : CompletableFuture.completedFuture(null);
+    }
+    // Settled on the scheduler rather than the HTTP client's thread, as settling may rewrite batches on disk
+    CompletableFuture.allOf(responses).whenComplete((ignored, error) -> scheduler.runAsync(() -> settleStoredWindow(window)));
+    return true;
+  }
+
+  private void settleStoredWindow(List<InFlightBatch> window) {
+    boolean continueLoop = false;
+    try {
+      long retryDelayMs = -1;
+      for (InFlightBatch inFlight : window) {
+        retryDelayMs = Math.max(retryDelayMs, settleStoredBatches(inFlight));
+      }
+
+      if (retryDelayMs >= 0) {
+        pauseSending(retryDelayMs);
+      } else {
+        continueLoop = true;
       }
     } finally {
-      sendLoopRunning.set(false);
-      if (durableQueue.hasMore()) {
-        kickSendLoop();
+      if (continueLoop) {
+        drainDurableQueue();
+      } else {
+        finishSendLoop();
       }
     }
   }
 
-  private boolean processNextStoredBatch() {
-    try (PersistentBatchQueue.BatchRecord record = durableQueue.readNext()) {
+  /**
+   * Parks the send loop; the delayed kick resumes draining.
+   */
+  private void pauseSending(long delayMs) {
+    retryNotBeforeMillis = System.currentTimeMillis() + delayMs;
+    scheduler.scheduleAsyncDelayed(this::resumeAfterBackoff, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Leases consecutive stored batches up to the per-request budget and sends them as one upload. Gzip members, zstd
+   * frames and protobuf repeated fields all concatenate, so the joined payloads form a single valid
+   * {@link EventBatch}. Only batches of the same lane and with the same codec share an upload, and a batch that is
+   * being retried is sent on its own.
+   *
+   * @param probe whether to send only the next stored batch, to probe the endpoint while the circuit is open
+   * @return the dispatched upload, or null if the queue is empty
+   */
+  private InFlightBatch dispatchStoredBatches(Config config, boolean probe) {
+    int maxEvents = config == null ? AdaptiveBatchSizer.INITIAL_EVENT_LIMIT : Math.max(1, delivery(config).getMaxEventsPerRequest());
+    long maxBytes = config == null ? 0 : Math.max(1, delivery(config).getMaxBytesPerRequest());
+    PayloadCodec allowedCodec = uploadCodec(config);
+    Lane lane = nextLaneToSend();
+    if (lane == null) {
+      return null;
+    }
+    PersistentBatchQueue durableQueue = lane.durableQueue;
+
+    PayloadCodec codec = null;
+    List<PersistentBatchQueue.BatchRecord> records = new ArrayList<>();
+    List<byte[]> payloads = new ArrayList<>();
+    int eventCount = 0;
+    long payloadBytes = 0;
+    int attempt = 0;
+    while (true) {
+      // The first batch is always taken so that a batch larger than the budget is still sent on its own
+      PersistentBatchQueue.BatchRecord record = records.isEmpty()
+        ? durableQueue.readNext()
+        : durableQueue.readNext(maxEvents - eventCount, maxBytes - payloadBytes);
       if (record == null) {
-        return false;
+        break;
       }
 
-      if (record.eventCount() > BATCH_SIZE_THRESHOLD) {
-        log.warning("Stored batch has " + record.eventCount() + " events, exceeding max threshold; sending anyway");
+      byte[] payload;
+      try {
+        payload = record.payload();
+        // zstd batches written before zstd was turned off or rejected are sent as gzip
+        if (allowedCodec != PayloadCodec.ZSTD && PayloadCodec.ZSTD.isEncoded(payload)) {
+          payload = PayloadCodec.GZIP.compress(PayloadCodec.ZSTD.decompress(payload));
+        }
+      } catch (IOException e) {
+        log.severe("Dropping stored batch of " + record.eventCount() + " events because it could not be read: " + e.getMessage());
+        record.close();
+        continue;
       }
 
-      long index = record.index();
-      byte[] payload = payloadOverrides.getOrDefault(index, record.payload());
-      int attempt = Math.max(record.attempt(), attemptOverrides.getOrDefault(index, record.attempt()));
+      PayloadCodec recordCodec = PayloadCodec.detect(payload);
+      if (codec == null) {
+        codec = recordCodec;
+      } else if (recordCodec != codec || record.attempt() > 0) {
+        // Its attempt count must not apply to the batches sent with it
+        record.rollback();
+        record.close();
+        break;
+      }
 
-      SendResult result = sendBatchSync(payload, record.eventCount(), attempt);
+      records.add(record);
+      payloads.add(payload);
+      eventCount += record.eventCount();
+      payloadBytes += payload.length;
+      attempt = record.attempt();
+      if (probe || attempt > 0) {
+        break;
+      }
+    }
 
-      switch (result.type()) {
-        case SUCCESS -> {
-          attemptOverrides.remove(index);
-          payloadOverrides.remove(index);
-          return true;
-        }
-        case DROP -> {
-          attemptOverrides.remove(index);
-          payloadOverrides.remove(index);
-          return true;
+    if (records.isEmpty()) {
+      return null;
+    }
+    if (records.size() == 1 && eventCount > batching(config).getMaxBatchEvents()) {
+      log.warning("Stored batch has " + eventCount + " events, exceeding max threshold; sending anyway");
+    }
+    if (config != null && config.isDebug() && records.size() > 1) {
+      log.info("[DEBUG] Combined " + records.size() + " stored batches (" + eventCount + " events) into one upload");
+    }
+
+    byte[] payload = payloads.size() == 1 ? payloads.get(0) : concatenate(payloads, payloadBytes);
+    rateLimiter.recordUpload(payload.length);
+    // Combined catch-up uploads are far larger than a staged batch, so only single batches feed the batch sizer
+    boolean sizingSample = records.size() == 1;
+    return new InFlightBatch(records, payloads, payload, codec, eventCount, attempt, probe, sendBatchAsync(payload, codec, sizingSample));
+  }
+
+  private static byte[] concatenate(List<byte[]> payloads, long totalBytes) {
+    byte[] joined = new byte[Math.toIntExact(totalBytes)];
+    int offset = 0;
+    for (byte[] payload : payloads) {
+      System.arraycopy(payload, 0, joined, offset, payload.length);
+      offset += payload.length;
+    }
+    return joined;
+  }
+
+  /**
+   * Acknowledges or rolls back each stored batch of a completed upload.
+   *
+   * @return the delay before the next upload in milliseconds, or -1 if every batch left the queue and the server
+   * did not ask for a pause
+   */
+  private long settleStoredBatches(InFlightBatch inFlight) {
+    List<PersistentBatchQueue.BatchRecord> records = inFlight.records();
+    try {
+      int attempt = inFlight.attempt();
+      SendResult result = sendResult(inFlight.response(), inFlight.payload(), inFlight.codec(), inFlight.eventCount(), attempt, inFlight.probe());
+
+      if (result.type() == ResultType.REENCODE || result.type() == ResultType.UNAVAILABLE) {
+        // Not the batches' fault, so no attempt is used up
+        for (PersistentBatchQueue.BatchRecord record : records) {
+          record.rollback();
         }
-        case RETRY -> {
-          int nextAttempt = attempt + 1;
-          attemptOverrides.put(index, nextAttempt);
-          if (result.payloadOverride() != null) {
-            payloadOverrides.put(index, result.payloadOverride());
-          }
-          long delayMs = calculateRetryDelay(attempt);
-          record.rollback(); // keep pointer on this batch
-          log.warning("Retrying batch in " + delayMs + "ms (attempt " + nextAttempt + ")");
-          scheduler.scheduleAsyncDelayed(this::kickSendLoop, delayMs, TimeUnit.MILLISECONDS);
-          return false;
+        return circuitBreaker.millisUntilProbe();
+      }
+
+      if (result.type() != ResultType.RETRY) {
+        return result.retryAfterMillis() > 0 ? result.retryAfterMillis() : -1;
+      }
+
+      RetryBatch[] retryBatches = determineRetryBatches(result.ingestResponse(), records, inFlight.payloads());
+      int nextAttempt = attempt + 1;
+      for (int i = 0; i < records.size(); i++) {
+        PersistentBatchQueue.BatchRecord record = records.get(i);
+        RetryBatch retryBatch = retryBatches[i];
+        if (retryBatch == null) {
+          // none of this batch's events were rejected, so it is acknowledged on close
+          continue;
         }
-        default -> {
-          return true;
+
+        if (retryBatch.payload() != inFlight.payloads().get(i)) {
+          record.replace(ByteBuffer.wrap(retryBatch.payload()), retryBatch.eventCount(), retryBatch.eventIndex(), nextAttempt);
+        } else {
+          record.setAttempt(nextAttempt);
         }
+        record.rollback(); // keep this batch at its position in the queue
+      }
+
+      // The server may ask for a longer pause than the backoff, e.g. when it throttles
+      long delayMs = Math.max(calculateRetryDelay(attempt), result.retryAfterMillis());
+      log.warning("Retrying batch in " + delayMs + "ms (attempt " + nextAttempt + ")");
+      return delayMs;
+    } finally {
+      for (PersistentBatchQueue.BatchRecord record : records) {
+        record.close();
       }
     }
   }
 
-  private SendResult sendBatchSync(byte[] payload, int eventCount, int attempt) {
+  private PayloadCodec uploadCodec(Config config) {
+    if (config == null || zstdRejected) {
+      return PayloadCodec.GZIP;
+    }
+    return PayloadCodec.forSetting(delivery(config).getCompression());
+  }
+
+  private CompletableFuture<HttpResponse<IngestResponseSubscriber.Body>> sendBatchAsync(byte[] payload, PayloadCodec codec,
+                                                                                       boolean sizingSample) {
     Config config = plugin.getConfig();
     if (config == null) {
       log.warning("Cannot send batch because configuration was not loaded");
-      return SendResult.drop();
+      return null;
     }
+
     HttpRequest request = HttpRequest.newBuilder()
       .uri(URI.create("https://ingest.mineads.gg/event"))
       .header("X-API-KEY", config.getPluginKey())
       .header("Content-Type", "application/x-protobuf")
-      .header("Content-Encoding", "gzip")
+      .header("Content-Encoding", codec.contentEncoding())
       .header("Accept-Encoding", "gzip")
       .header("Accept", "application/x-protobuf")
       .timeout(REQUEST_TIMEOUT)
       .PUT(HttpRequest.BodyPublishers.ofByteArray(payload))
       .build();
 
+    // Requests of one window are multiplexed as separate streams over the shared HTTP/2 connection
+    long startNanos = System.nanoTime();
+    CompletableFuture<HttpResponse<IngestResponseSubscriber.Body>> response = httpClient.sendAsync(request, IngestResponseSubscriber.handler());
+    if (!sizingSample) {
+      return response;
+    }
+    return response.whenComplete((completed, error) -> batchSizer.recordUpload(System.nanoTime() - startNanos,
+      completed != null ? completed.statusCode() : -1, completed != null && isAccepted(completed.body())));
+  }
+
+  private static boolean isAccepted(IngestResponseSubscriber.Body body) {
+    return body != null && body.ingestResponse() != null && body.ingestResponse().getSuccess();
+  }
+
+  private SendResult sendResult(CompletableFuture<HttpResponse<IngestResponseSubscriber.Body>> completedResponse, byte[] payload,
+                                PayloadCodec codec, int eventCount, int attempt, boolean probe) {
+    Config config = plugin.getConfig();
+    if (config == null || completedResponse == null) {
+      // the reason was logged when the batch was dispatched
+      return SendResult.drop();
+    }
+
     try {
-      HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
-      byte[] responseBytes;
-      try (InputStream bodyStream = getDecodedInputStream(response)) {
-        responseBytes = bodyStream.readAllBytes();
+      HttpResponse<IngestResponseSubscriber.Body> response = completedResponse(completedResponse);
+      byte[] responseBytes = response.body().bytes();
+      int statusCode = response.statusCode();
+      IngestResponse ingestResponse = response.body().ingestResponse();
+      long retryAfterMillis = retryAfterMillis(response, ingestResponse);
+      if (isEndpointFailure(statusCode)) {
+        if (circuitBreaker.recordFailure(probe, retryAfterMillis)) {
+          return SendResult.unavailable();
+        }
+      } else {
+        circuitBreaker.recordSuccess();
+      }
+
+      if (statusCode == 415 && codec != PayloadCodec.GZIP) {
+        if (!zstdRejected) {
+          zstdRejected = true;
+          log.warning("Ingest endpoint does not accept " + codec.contentEncoding() + " uploads, falling back to gzip");
+        }
+        return SendResult.reencode();
       }
 
-      IngestResponse ingestResponse = parseResponse(responseBytes);
-      int statusCode = response.statusCode();
       boolean succeeded = statusCode >= 200 && statusCode < 300 && ingestResponse != null && ingestResponse.getSuccess();
 
       if (succeeded) {
@@ -292,10 +822,9 @@ public class BatchProcessor implements Runnable {
         if (config.isDebug()) {
           log.info("[DEBUG] Batch sent successfully with status " + statusCode);
         }
-        return SendResult.success();
+        return SendResult.success(retryAfterMillis);
       }
 
-      byte[] nextPayload = determineFailedPayload(ingestResponse, payload);
       if (attempt + 1 >= MAX_RETRY_ATTEMPTS) {
         log.severe("Batch send failed after " + (attempt + 1) + " attempts (status " + statusCode + ")");
         if (config.isDebug()) {
@@ -307,43 +836,132 @@ public class BatchProcessor implements Runnable {
       if (config.isDebug()) {
         logDebugResponse(ingestResponse, responseBytes);
       }
-      return SendResult.retry(nextPayload);
-    } catch (InterruptedException interrupted) {
-      Thread.currentThread().interrupt();
-      if (attempt + 1 >= MAX_RETRY_ATTEMPTS) {
-        log.severe("Batch send interrupted after " + (attempt + 1) + " attempts: " + interrupted.getMessage());
-        return SendResult.drop();
-      }
-      log.warning("Batch send interrupted: " + interrupted.getMessage());
-      return SendResult.retry(null);
+      return SendResult.retry(ingestResponse, retryAfterMillis);
     } catch (IOException ioException) {
+      if (circuitBreaker.recordFailure(probe, 0)) {
+        return SendResult.unavailable();
+      }
       if (attempt + 1 >= MAX_RETRY_ATTEMPTS) {
         log.severe("Batch send failed after " + (attempt + 1) + " attempts: " + ioException.getMessage());
         return SendResult.drop();
       }
       log.warning("Batch send failed with exception: " + ioException.getMessage());
-      return SendResult.retry(null);
+      return SendResult.retry(null, 0);
+    }
+  }
+
+  /**
+   * The pause the server asked for, through a {@code Retry-After} header in seconds or as an HTTP date, or through
+   * the response body.
+   *
+   * @return the pause in milliseconds, capped to {@link #MAX_RETRY_AFTER_MS}, or 0 if none was asked for
+   */
+  private static long retryAfterMillis(HttpResponse<?> response, IngestResponse ingestResponse) {
+    long retryAfterMillis = ingestResponse != null ? ingestResponse.getRetryAfterMillis() : 0;
+    String header = response.headers().firstValue("Retry-After").orElse("").trim();
+    if (!header.isEmpty()) {
+      try {
+        retryAfterMillis = Math.max(retryAfterMillis, TimeUnit.SECONDS.toMillis(Long.parseLong(header)));
+      } catch (NumberFormatException notSeconds) {
+        try {
+          long dateMillis = ZonedDateTime.parse(header, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+          retryAfterMillis = Math.max(retryAfterMillis, dateMillis - System.currentTimeMillis());
+        } catch (DateTimeParseException ignored) {
+          // not a valid Retry-After value
+        }
+      }
     }
+    return Math.max(0, Math.min(retryAfterMillis, MAX_RETRY_AFTER_MS));
   }
 
-  private byte[] determineFailedPayload(IngestResponse ingestResponse, byte[] currentPayload) {
+  /**
+   * Whether a status says the endpoint is unhealthy rather than that the batch was rejected.
+   */
+  private static boolean isEndpointFailure(int statusCode) {
+    return statusCode >= 500 || statusCode == 429 || statusCode == 408;
+  }
+
+  /**
+   * @param completedResponse an upload that already completed, so this never blocks
+   */
+  private static HttpResponse<IngestResponseSubscriber.Body> completedResponse(CompletableFuture<HttpResponse<IngestResponseSubscriber.Body>> completedResponse) throws IOException {
+    try {
+      return completedResponse.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw new IOException(cause != null ? cause.getMessage() : e.getMessage(), cause);
+    } catch (CancellationException e) {
+      throw new IOException("Upload was cancelled", e);
+    }
+  }
+
+  /**
+   * Works out what to retry for each stored batch of a failed upload. Without per-event detail every batch is
+   * retried as is. Otherwise each batch is reduced to its rejected events, and a batch without any is not retried.
+   *
+   * @return what to retry per batch, null for batches that are done
+   */
+  private RetryBatch[] determineRetryBatches(IngestResponse ingestResponse, List<PersistentBatchQueue.BatchRecord> records, List<byte[]> payloads) {
+    RetryBatch[] retryBatches = new RetryBatch[records.size()];
+    for (int i = 0; i < records.size(); i++) {
+      retryBatches[i] = new RetryBatch(payloads.get(i), records.get(i).eventCount(), null);
+    }
     if (ingestResponse == null || ingestResponse.getFailedEventsList().isEmpty()) {
-      // No per-event detail: retry everything
-      return currentPayload;
+      return retryBatches;
     }
 
     Set<String> failedIds = ingestResponse.getFailedEventsList().stream()
       .map(FailedEvent::getEventId)
       .collect(Collectors.toSet());
 
-    EventBatch eventBatch = parseEventBatch(currentPayload);
+    RetryBatch[] failedBatches = new RetryBatch[records.size()];
+    boolean anyMatched = false;
+    for (int i = 0; i < records.size(); i++) {
+      RetryBatch failedBatch = failedEvents(records.get(i), payloads.get(i), failedIds);
+      if (failedBatch != null) {
+        failedBatches[i] = failedBatch;
+        anyMatched = true;
+      }
+    }
+
+    // Nothing matched; retry the full upload
+    return anyMatched ? failedBatches : retryBatches;
+  }
+
+  /**
+   * Cuts the rejected events out of a stored batch. Uses the batch's event index where there is one, so only the
+   * payload has to be decompressed, and parses the batch otherwise.
+   *
+   * @return the batch to retry, the full batch if it could not be read, or null if none of its events were rejected
+   */
+  private RetryBatch failedEvents(PersistentBatchQueue.BatchRecord record, byte[] payload, Set<String> failedIds) {
+    PayloadCodec codec = PayloadCodec.detect(payload);
+    try {
+      EventOffsetIndex eventIndex = record.eventIndex();
+      if (eventIndex != null && eventIndex.size() == record.eventCount()) {
+        EventOffsetIndex.Slice slice = eventIndex.slice(codec.decompress(payload), failedIds);
+        if (slice.eventCount() == 0) {
+          return null;
+        }
+        if (slice.eventCount() == record.eventCount()) {
+          return new RetryBatch(payload, record.eventCount(), null);
+        }
+        return new RetryBatch(codec.compress(slice.batch()), slice.eventCount(), slice.index());
+      }
+    } catch (IOException e) {
+      log.severe("Failed to read stored batch index, parsing the batch instead: " + e.getMessage());
+    }
+
+    EventBatch eventBatch = parseEventBatch(payload);
     if (eventBatch == null) {
-      return currentPayload;
+      return new RetryBatch(payload, record.eventCount(), null);
     }
 
     EventBatch.Builder builder = EventBatch.newBuilder()
       .setServerId(eventBatch.getServerId());
-
     for (MineAdsEvent event : eventBatch.getEventsList()) {
       if (failedIds.contains(event.getEventId())) {
         builder.addEvents(event);
@@ -351,66 +969,38 @@ public class BatchProcessor implements Runnable {
     }
 
     if (builder.getEventsCount() == 0) {
-      // Nothing matched; retry the full batch
-      builder.addAllEvents(eventBatch.getEventsList());
+      return null;
     }
-
-    return compress(builder.build().toByteArray());
+    if (builder.getEventsCount() == eventBatch.getEventsCount()) {
+      return new RetryBatch(payload, record.eventCount(), null);
+    }
+    return new RetryBatch(compress(codec, builder.build().toByteArray()), builder.getEventsCount(), null);
   }
 
   private EventBatch parseEventBatch(byte[] payload) {
-    try (GZIPInputStream gzipInputStream = new GZIPInputStream(new java.io.ByteArrayInputStream(payload))) {
-      byte[] decompressed = gzipInputStream.readAllBytes();
-      return EventBatch.parseFrom(decompressed);
+    try {
+      return EventBatch.parseFrom(PayloadCodec.detect(payload).decompress(payload));
     } catch (IOException e) {
       log.severe("Failed to parse stored batch: " + e.getMessage());
       return null;
     }
   }
 
-  private byte[] serializeToProtobuf(Queue<MineAdsEvent> events) {
+  /**
+   * Encodes staged events into the staging writer's buffer. Only called by the thread that holds the staging flag.
+   */
+  private ByteBuffer serializeToProtobuf(List<MineAdsEvent> events) throws IOException {
     Config config = plugin.getConfig();
-    return compress(EventBatch.newBuilder()
-      .addAllEvents(events)
-      .setServerId(config.getServerId())
-      .build()
-      .toByteArray());
-  }
-
-  private static byte[] compress(byte[] data) {
-    try (ByteArrayOutputStream byteStream = new ByteArrayOutputStream(data.length);
-         GZIPOutputStream gzipStream = new GZIPOutputStream(byteStream)) {
-      gzipStream.write(data);
-      gzipStream.close();
-      return byteStream.toByteArray();
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to gzip data", e);
-    }
-  }
-
-  public static InputStream getDecodedInputStream(HttpResponse<InputStream> httpResponse) {
-    String encoding = determineContentEncoding(httpResponse);
-    try {
-      return switch (encoding) {
-        case "" -> httpResponse.body();
-        case "gzip" -> new GZIPInputStream(httpResponse.body());
-        default -> throw new UnsupportedOperationException("Unexpected Content-Encoding: " + encoding);
-      };
-    } catch (IOException ioe) {
-      throw new UncheckedIOException(ioe);
-    }
-  }
-
-  public static String determineContentEncoding(HttpResponse<?> httpResponse) {
-    return httpResponse.headers().firstValue("Content-Encoding").orElse("");
+    ByteBuffer compressed = stagingWriter.write(config.getServerId(), events, uploadCodec(config));
+    batchSizer.recordBatch(stagingWriter.lastUncompressedBytes(), compressed.remaining());
+    return compressed;
   }
 
-  private IngestResponse parseResponse(byte[] responseBytes) {
+  private static byte[] compress(PayloadCodec codec, byte[] data) {
     try {
-      return IngestResponse.parseFrom(responseBytes);
-    } catch (InvalidProtocolBufferException e) {
-      log.severe("Failed to parse protobuf ingest response: " + e.getMessage());
-      return null;
+      return codec.compress(data);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to compress data", e);
     }
   }
 
@@ -427,26 +1017,66 @@ public class BatchProcessor implements Runnable {
 
   private long calculateRetryDelay(int attempt) {
     long delay = INITIAL_RETRY_DELAY_MS * (1L << attempt);
-    return Math.min(delay, MAX_RETRY_DELAY_MS);
+    return UploadRateLimiter.withJitter(Math.min(delay, MAX_RETRY_DELAY_MS));
   }
 
   private enum ResultType {
     SUCCESS,
     RETRY,
-    DROP
+    DROP,
+    REENCODE,
+    UNAVAILABLE
   }
 
-  private record SendResult(ResultType type, byte[] payloadOverride) {
-    static SendResult success() {
-      return new SendResult(ResultType.SUCCESS, null);
+  /**
+   * Staging buffer and durable queue of one {@link EventLane}.
+   */
+  private static final class Lane {
+    private final EventLane type;
+    private final BoundedMpscBuffer<MineAdsEvent> stagingEvents;
+    // Uncompressed size of the staged events, for the linger byte trigger
+    private final AtomicLong stagedBytes = new AtomicLong();
+    private volatile PersistentBatchQueue durableQueue;
+    // Round robin credit, only used by the send loop
+    private int currentWeight = 0;
+
+    Lane(EventLane type) {
+      this.type = type;
+      this.stagingEvents = new BoundedMpscBuffer<>(type.stagingCapacity());
     }
+  }
+
+  private record InFlightBatch(List<PersistentBatchQueue.BatchRecord> records, List<byte[]> payloads, byte[] payload,
+                               PayloadCodec codec, int eventCount, int attempt, boolean probe,
+                               CompletableFuture<HttpResponse<IngestResponseSubscriber.Body>> response) {}
 
-    static SendResult retry(byte[] payloadOverride) {
-      return new SendResult(ResultType.RETRY, payloadOverride);
+  /**
+   * @param eventIndex positions of the events in {@code payload}, or null if they are not known
+   */
+  private record RetryBatch(byte[] payload, int eventCount, EventOffsetIndex eventIndex) {}
+
+  /**
+   * @param retryAfterMillis pause the server asked for before the next upload, 0 if none
+   */
+  private record SendResult(ResultType type, IngestResponse ingestResponse, long retryAfterMillis) {
+    static SendResult success(long retryAfterMillis) {
+      return new SendResult(ResultType.SUCCESS, null, retryAfterMillis);
+    }
+
+    static SendResult retry(IngestResponse ingestResponse, long retryAfterMillis) {
+      return new SendResult(ResultType.RETRY, ingestResponse, retryAfterMillis);
     }
 
     static SendResult drop() {
-      return new SendResult(ResultType.DROP, null);
+      return new SendResult(ResultType.DROP, null, 0);
+    }
+
+    static SendResult reencode() {
+      return new SendResult(ResultType.REENCODE, null, 0);
+    }
+
+    static SendResult unavailable() {
+      return new SendResult(ResultType.UNAVAILABLE, null, 0);
     }
   }
 }
@@ -0,0 +1,137 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Array-backed ring buffer for many producers and a single consumer.
+ * Offering and polling never allocate, and {@link #size()} is O(1).
+ * Only one thread at a time may call {@link #poll()} or {@link #peek()}.
+ *
+ * @param <E> element type
+ */
+public final class BoundedMpscBuffer<E> {
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  // Per-slot sequence: equals the producer position when free, position + 1 when published
+  private final AtomicLongArray sequences;
+  private final AtomicLong producerIndex = new AtomicLong();
+  private volatile long consumerIndex = 0;
+
+  public BoundedMpscBuffer(int requestedCapacity) {
+    if (requestedCapacity < 2) {
+      throw new IllegalArgumentException("Capacity must be at least 2");
+    }
+
+    this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+    this.mask = capacity - 1;
+    this.elements = new AtomicReferenceArray<>(capacity);
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds an element if there is room.
+   *
+   * @param element element to add
+   * @return false if the buffer is full
+   */
+  public boolean offer(E element) {
+    if (element == null) {
+      throw new NullPointerException("element");
+    }
+
+    long position;
+    int slot;
+    while (true) {
+      position = producerIndex.get();
+      slot = (int) position & mask;
+      long difference = sequences.get(slot) - position;
+      if (difference == 0) {
+        if (producerIndex.compareAndSet(position, position + 1)) {
+          break;
+        }
+      } else if (difference < 0) {
+        return false;
+      }
+      // Another producer claimed this position first, try the next one
+    }
+
+    elements.lazySet(slot, element);
+    sequences.set(slot, position + 1);
+    return true;
+  }
+
+  /**
+   * Removes the oldest published element.
+   *
+   * @return the element, or null if none is available
+   */
+  public E poll() {
+    long position = consumerIndex;
+    int slot = (int) position & mask;
+    if (sequences.get(slot) != position + 1) {
+      return null;
+    }
+
+    E element = elements.get(slot);
+    elements.lazySet(slot, null);
+    sequences.set(slot, position + capacity);
+    consumerIndex = position + 1;
+    return element;
+  }
+
+  /**
+   * Returns the oldest published element without removing it. Only for the consumer thread.
+   *
+   * @return the element, or null if none is available
+   */
+  public E peek() {
+    long position = consumerIndex;
+    int slot = (int) position & mask;
+    if (sequences.get(slot) != position + 1) {
+      return null;
+    }
+    return elements.get(slot);
+  }
+
+  /**
+   * Number of claimed slots. Elements that are still being published by a producer are included.
+   */
+  public int size() {
+    long size = producerIndex.get() - consumerIndex;
+    if (size < 0) {
+      return 0;
+    }
+    return (int) Math.min(size, capacity);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+}
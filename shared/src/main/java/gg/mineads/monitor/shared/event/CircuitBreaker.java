@@ -0,0 +1,117 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.config.Config;
+import lombok.extern.java.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Tracks whether the ingest endpoint is reachable.
+ *
+ * <p>The circuit opens after a number of consecutive endpoint failures. While it is open the send loop is parked
+ * until the next probe is due, and then sends a single batch. A successful probe closes the circuit, a failed one
+ * doubles the interval to the next probe up to the configured maximum. Probes are jittered so that servers do not
+ * all probe at once after a shared outage, and are never sent before a pause the endpoint asked for.
+ */
+@Log
+final class CircuitBreaker {
+  private static final long INITIAL_PROBE_INTERVAL_MILLIS = 5000;
+  private static final Config.Delivery DEFAULT_SETTINGS = new Config.Delivery();
+
+  private final Supplier<Config> configSupplier;
+  private int consecutiveFailures = 0;
+  private boolean open = false;
+  private long probeIntervalMillis = INITIAL_PROBE_INTERVAL_MILLIS;
+  private long nextProbeMillis = 0;
+
+  CircuitBreaker(Supplier<Config> configSupplier) {
+    this.configSupplier = configSupplier;
+  }
+
+  synchronized boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Time left until the next probe may be sent, 0 if the circuit is closed.
+   */
+  synchronized long millisUntilProbe() {
+    return open ? Math.max(0, nextProbeMillis - System.currentTimeMillis()) : 0;
+  }
+
+  /**
+   * Records an upload the endpoint answered, even if it rejected the batch.
+   */
+  synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    if (open) {
+      open = false;
+      probeIntervalMillis = INITIAL_PROBE_INTERVAL_MILLIS;
+      log.info("Ingest endpoint is reachable again, resuming uploads");
+    }
+  }
+
+  /**
+   * Records an upload that failed because of the endpoint, i.e. a network error, throttling or a server error.
+   *
+   * @param probe whether the upload was sent as a probe while the circuit was open
+   * @param retryAfterMillis pause the endpoint asked for, 0 if none
+   * @return whether the circuit is open, in which case the batches should not use up a retry attempt
+   */
+  synchronized boolean recordFailure(boolean probe, long retryAfterMillis) {
+    Config.Delivery settings = settings();
+    if (open) {
+      // Uploads dispatched before the circuit opened do not push the next probe back
+      if (probe) {
+        probeIntervalMillis = Math.min(probeIntervalMillis * 2, Math.max(INITIAL_PROBE_INTERVAL_MILLIS, settings.getCircuitBreakerMaxProbeIntervalMillis()));
+        scheduleProbe(retryAfterMillis);
+        Config config = configSupplier.get();
+        if (config != null && config.isDebug()) {
+          log.info("[DEBUG] Probe upload failed, next probe in " + millisUntilProbe() + "ms");
+        }
+      } else {
+        nextProbeMillis = Math.max(nextProbeMillis, System.currentTimeMillis() + retryAfterMillis);
+      }
+      return true;
+    }
+
+    consecutiveFailures++;
+    if (consecutiveFailures < Math.max(1, settings.getCircuitBreakerFailureThreshold())) {
+      return false;
+    }
+
+    open = true;
+    probeIntervalMillis = INITIAL_PROBE_INTERVAL_MILLIS;
+    scheduleProbe(retryAfterMillis);
+    log.warning("Ingest endpoint failed " + consecutiveFailures + " uploads in a row, pausing uploads until it recovers (next probe in "
+      + TimeUnit.MILLISECONDS.toSeconds(millisUntilProbe()) + "s)");
+    return true;
+  }
+
+  private void scheduleProbe(long retryAfterMillis) {
+    nextProbeMillis = System.currentTimeMillis() + Math.max(UploadRateLimiter.withJitter(probeIntervalMillis), retryAfterMillis);
+  }
+
+  private Config.Delivery settings() {
+    Config config = configSupplier.get();
+    return config != null && config.getDelivery() != null ? config.getDelivery() : DEFAULT_SETTINGS;
+  }
+}
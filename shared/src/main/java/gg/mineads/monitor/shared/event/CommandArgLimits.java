@@ -0,0 +1,113 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Per-command argument limits compiled from {@code commandArgLimits} into a case-insensitive trie, so a command name
+ * is looked up in place without copying it out of the command line.
+ *
+ * <p>A namespaced command such as {@code essentials:warp} uses the limit configured for it, and otherwise the limit of
+ * the name after the namespace. If two configured names differ only in case, the lower limit applies.
+ */
+public final class CommandArgLimits {
+  private final int defaultMaxArgs;
+  private final Node root;
+
+  private CommandArgLimits(int defaultMaxArgs, Node root) {
+    this.defaultMaxArgs = defaultMaxArgs;
+    this.root = root;
+  }
+
+  public static CommandArgLimits compile(int defaultMaxArgs, Map<String, Integer> limits) {
+    Node root = new Node();
+    if (limits != null) {
+      for (Map.Entry<String, Integer> entry : limits.entrySet()) {
+        if (entry.getKey() == null || entry.getKey().isEmpty() || entry.getValue() == null) {
+          continue;
+        }
+
+        Node node = root;
+        String name = entry.getKey();
+        for (int i = 0; i < name.length(); i++) {
+          node = node.childOrCreate(Character.toLowerCase(name.charAt(i)));
+        }
+        node.maxArgs = node.maxArgs < 0 ? entry.getValue() : Math.min(node.maxArgs, entry.getValue());
+      }
+    }
+    return new CommandArgLimits(defaultMaxArgs, root);
+  }
+
+  /**
+   * @return the maximum number of arguments to keep for the command name in {@code line} between {@code start} and
+   * {@code end}
+   */
+  public int maxArgs(CharSequence line, int start, int end) {
+    int maxArgs = lookup(line, start, end);
+    if (maxArgs >= 0) {
+      return maxArgs;
+    }
+
+    for (int i = end - 1; i >= start; i--) {
+      if (line.charAt(i) == ':') {
+        maxArgs = lookup(line, i + 1, end);
+        break;
+      }
+    }
+    return maxArgs >= 0 ? maxArgs : defaultMaxArgs;
+  }
+
+  private int lookup(CharSequence line, int start, int end) {
+    Node node = root;
+    for (int i = start; i < end && node != null; i++) {
+      node = node.child(Character.toLowerCase(line.charAt(i)));
+    }
+    return node != null ? node.maxArgs : -1;
+  }
+
+  private static final class Node {
+    private char[] labels = new char[0];
+    private Node[] children = new Node[0];
+    // -1 if no command ends here
+    private int maxArgs = -1;
+
+    private Node child(char label) {
+      // Fan-out is small, a scan beats hashing
+      for (int i = 0; i < labels.length; i++) {
+        if (labels[i] == label) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    private Node childOrCreate(char label) {
+      Node child = child(label);
+      if (child == null) {
+        child = new Node();
+        labels = Arrays.copyOf(labels, labels.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        labels[labels.length - 1] = label;
+        children[children.length - 1] = child;
+      }
+      return child;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import com.google.protobuf.CodedOutputStream;
+import gg.mineads.monitor.shared.event.generated.EventBatch;
+import gg.mineads.monitor.shared.event.generated.MineAdsEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encodes staged events as a compressed {@link EventBatch} without building the batch message first.
+ * Each event is written straight through a {@link CodedOutputStream} into the codec's compressor, and the compressed
+ * bytes land in an output buffer that is reused from batch to batch. The position of every event in the uncompressed
+ * batch is recorded in an {@link EventOffsetIndex} along the way.
+ *
+ * <p>Not thread safe. The buffer returned by {@link #write(String, List, PayloadCodec)} is only valid until the next call.
+ */
+final class EventBatchWriter {
+  private static final int INITIAL_BUFFER_BYTES = 16 * 1024;
+  // Buffers grown by an unusually large batch are not kept around
+  private static final int MAX_RETAINED_BUFFER_BYTES = 1024 * 1024;
+  private static final int CODED_BUFFER_BYTES = 4096;
+
+  private ReusableOutputBuffer buffer = new ReusableOutputBuffer(INITIAL_BUFFER_BYTES);
+  private int lastUncompressedBytes;
+  private EventOffsetIndex lastEventIndex;
+
+  /**
+   * @return the compressed batch, backed by this writer's buffer
+   */
+  ByteBuffer write(String serverId, List<MineAdsEvent> events, PayloadCodec codec) throws IOException {
+    if (buffer.capacity() > MAX_RETAINED_BUFFER_BYTES) {
+      buffer = new ReusableOutputBuffer(INITIAL_BUFFER_BYTES);
+    }
+    buffer.reset();
+
+    try (OutputStream compressedStream = codec.compress(buffer)) {
+      CodedOutputStream output = CodedOutputStream.newInstance(compressedStream, CODED_BUFFER_BYTES);
+      EventOffsetIndex.Builder eventIndex = new EventOffsetIndex.Builder(events.size());
+      // Same wire format as EventBatch.writeTo, which emits fields in field number order
+      for (MineAdsEvent event : events) {
+        int offset = output.getTotalBytesWritten();
+        output.writeMessage(EventBatch.EVENTS_FIELD_NUMBER, event);
+        eventIndex.add(event.getEventId(), offset, output.getTotalBytesWritten() - offset);
+      }
+      if (serverId != null && !serverId.isEmpty()) {
+        output.writeString(EventBatch.SERVER_ID_FIELD_NUMBER, serverId);
+      }
+      output.flush();
+      lastUncompressedBytes = output.getTotalBytesWritten();
+      lastEventIndex = eventIndex.build();
+    }
+    return buffer.view();
+  }
+
+  /**
+   * Encoded size of the last batch before compression.
+   */
+  int lastUncompressedBytes() {
+    return lastUncompressedBytes;
+  }
+
+  /**
+   * Event positions of the last batch.
+   */
+  EventOffsetIndex lastEventIndex() {
+    return lastEventIndex;
+  }
+
+  private static final class ReusableOutputBuffer extends ByteArrayOutputStream {
+    ReusableOutputBuffer(int size) {
+      super(size);
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+
+    ByteBuffer view() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import gg.mineads.monitor.shared.MineAdsMonitorPlugin;
+import gg.mineads.monitor.shared.config.RuntimeConfig;
+import gg.mineads.monitor.shared.event.generated.MineAdsEvent;
+import gg.mineads.monitor.shared.event.generated.PlayerChatData;
+import gg.mineads.monitor.shared.event.generated.PlayerLeaveData;
+import gg.mineads.monitor.shared.event.generated.PlayerSettingsData;
+import gg.mineads.monitor.shared.scheduler.MineAdsScheduler;
+import gg.mineads.monitor.shared.session.PlayerSessionManager;
+import lombok.extern.java.Log;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * Hands high-frequency player events from the game and proxy threads to the event pipeline.
+ *
+ * <p>Listeners publish a small immutable {@link Capture} of what they saw. Captures go into a ring buffer that a
+ * single consumer task drains, building the protobuf events, so a burst of chat lines costs one scheduled task
+ * instead of one per line. If the ring is full, the capture is built on its own task as before.
+ */
+@Log
+@SuppressFBWarnings(value = "EI2", justification = "EventCapture must retain the plugin reference to read configuration and stage events.")
+public final class EventCapture {
+  private static final int CAPACITY = 8192;
+
+  private final MineAdsMonitorPlugin plugin;
+  private final BoundedMpscBuffer<Capture> captures = new BoundedMpscBuffer<>(CAPACITY);
+  // Set while a drain is scheduled or running, so a burst schedules one task
+  private final AtomicBoolean draining = new AtomicBoolean(false);
+  // Held while polling, as the ring allows a single consumer
+  private final ReentrantLock drainLock = new ReentrantLock();
+  private volatile MineAdsScheduler scheduler;
+
+  public EventCapture(MineAdsMonitorPlugin plugin) {
+    this.plugin = plugin;
+  }
+
+  public void start(MineAdsScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  public void publish(Capture capture) {
+    MineAdsScheduler currentScheduler = scheduler;
+    if (currentScheduler == null) {
+      return;
+    }
+
+    if (!captures.offer(capture)) {
+      currentScheduler.runAsync(() -> build(capture));
+      return;
+    }
+    if (draining.compareAndSet(false, true)) {
+      currentScheduler.runAsync(this::drain);
+    }
+  }
+
+  /**
+   * Builds the remaining captures on the calling thread, after waiting for a running drain to finish. Called before
+   * the batch processor stops.
+   */
+  public void flush() {
+    drainLock.lock();
+    try {
+      Capture capture;
+      while ((capture = captures.poll()) != null) {
+        build(capture);
+      }
+    } finally {
+      drainLock.unlock();
+    }
+  }
+
+  private void drain() {
+    try {
+      flush();
+    } finally {
+      draining.set(false);
+      // A capture published after the last poll found the drain still running
+      MineAdsScheduler currentScheduler = scheduler;
+      if (!captures.isEmpty() && currentScheduler != null && draining.compareAndSet(false, true)) {
+        currentScheduler.runAsync(this::drain);
+      }
+    }
+  }
+
+  private void build(Capture capture) {
+    RuntimeConfig config = plugin.getRuntimeConfig();
+    try {
+      MineAdsEvent event = switch (capture) {
+        case Chat chat -> buildChat(config, chat);
+        case Command command -> buildCommand(config, command);
+        case Leave leave -> buildLeave(config, leave);
+        case Settings settings -> buildSettings(config, settings);
+      };
+      if (event != null) {
+        plugin.getBatchProcessor().addEvent(event);
+      }
+    } catch (RuntimeException e) {
+      log.log(Level.SEVERE, "Failed to build event from " + capture.getClass().getSimpleName() + " capture", e);
+    }
+  }
+
+  private static MineAdsEvent buildChat(RuntimeConfig config, Chat chat) {
+    if (config.isDebug()) {
+      log.info("[DEBUG] Player chat: %s - %s".formatted(chat.playerName(), abbreviate(chat.message())));
+    }
+    PlayerChatData.Builder dataBuilder = PlayerChatData.newBuilder()
+      .setSessionId(chat.sessionId().toString());
+
+    if (!config.config().isDisableChatContent()) {
+      dataBuilder.setMessage(chat.message());
+    }
+
+    return TypeUtil.createChatEvent(dataBuilder.build());
+  }
+
+  private static MineAdsEvent buildCommand(RuntimeConfig config, Command command) {
+    if (config.isDebug()) {
+      log.info("[DEBUG] Player command: %s - %s".formatted(command.playerName(), abbreviate(command.command())));
+    }
+    return TypeUtil.createCommandEvent(TypeUtil.createCommandDataBuilder(
+      command.sessionId().toString(),
+      command.command(),
+      command.slashPrefixed(),
+      config.commandArgLimits()
+    ).build());
+  }
+
+  private static MineAdsEvent buildLeave(RuntimeConfig config, Leave leave) {
+    if (config.isDebug()) {
+      log.info("[DEBUG] Player quit: %s (%s), session: %s".formatted(leave.playerName(), leave.playerUuid(), leave.sessionId()));
+    }
+    return TypeUtil.createLeaveEvent(PlayerLeaveData.newBuilder()
+      .setSessionId(leave.sessionId().toString())
+      .build());
+  }
+
+  private static MineAdsEvent buildSettings(RuntimeConfig config, Settings settings) {
+    if (!settings.session().markSettingsSentIfFirst()) {
+      if (config.isDebug()) {
+        log.info("[DEBUG] Skipping duplicate player settings event for session " + settings.session().sessionId());
+      }
+      return null;
+    }
+
+    PlayerSettingsData.Builder builder = PlayerSettingsData.newBuilder()
+      .setSessionId(settings.session().sessionId().toString())
+      .setViewDistance(settings.viewDistance())
+      .setChatMode(settings.chatMode())
+      .setChatColors(settings.chatColors())
+      .setMainHand(settings.mainHand());
+
+    if (settings.locale() != null && !settings.locale().isBlank()) {
+      builder.setLocale(settings.locale());
+    }
+    if (settings.textFilteringEnabled() != null) {
+      builder.setTextFilteringEnabled(settings.textFilteringEnabled());
+    }
+    if (settings.allowsServerListings() != null) {
+      builder.setAllowsServerListings(settings.allowsServerListings());
+    }
+
+    return TypeUtil.createPlayerSettingsEvent(builder.build());
+  }
+
+  private static String abbreviate(String text) {
+    return text.length() > 50 ? text.substring(0, 50) + "..." : text;
+  }
+
+  /**
+   * What a listener saw, captured on the event thread. Captures must not hold platform objects, as they are read
+   * on another thread after the event handler returned.
+   */
+  public sealed interface Capture permits Chat, Command, Leave, Settings {
+  }
+
+  public record Chat(UUID sessionId, String playerName, String message) implements Capture {
+  }
+
+  /**
+   * @param slashPrefixed whether {@code command} still starts with the slash
+   */
+  public record Command(UUID sessionId, String playerName, String command, boolean slashPrefixed) implements Capture {
+  }
+
+  public record Leave(UUID sessionId, String playerName, UUID playerUuid) implements Capture {
+  }
+
+  /**
+   * @param textFilteringEnabled null if the platform does not report it
+   * @param allowsServerListings null if the platform does not report it
+   */
+  public record Settings(PlayerSessionManager.Session session, String locale, int viewDistance, String chatMode,
+                         boolean chatColors, String mainHand, Boolean textFilteringEnabled,
+                         Boolean allowsServerListings) implements Capture {
+  }
+}
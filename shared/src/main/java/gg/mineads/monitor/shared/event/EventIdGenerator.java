@@ -0,0 +1,35 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+/**
+ * Generates the {@code event_id} of new events. IDs must be unique, as the ingest endpoint deduplicates retried
+ * uploads by them.
+ */
+@FunctionalInterface
+interface EventIdGenerator {
+  /**
+   * Version 7 UUIDs, which start with the creation time in milliseconds and sort by it.
+   */
+  EventIdGenerator TIME_ORDERED = new TimeOrderedEventIdGenerator();
+
+  /**
+   * @return a new ID in the canonical 36 character UUID form
+   */
+  String nextId();
+}
@@ -0,0 +1,74 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.event.generated.MineAdsEvent;
+
+/**
+ * Priority class of an event. Every lane has its own staging buffer and durable queue, and the send loop picks
+ * the lane of each upload by weighted round robin, so a backlog of chat lines cannot delay a chargeback.
+ */
+enum EventLane {
+  // Flushed as soon as they are staged, they are rare and worth the most
+  TRANSACTIONS("transactions", 8, 4096, true),
+  SESSIONS("sessions", 3, 8192, false),
+  BULK("bulk", 1, 16384, false);
+
+  private static final EventLane[] VALUES = values();
+
+  private final String directoryName;
+  private final int weight;
+  private final int stagingCapacity;
+  private final boolean flushImmediately;
+
+  EventLane(String directoryName, int weight, int stagingCapacity, boolean flushImmediately) {
+    this.directoryName = directoryName;
+    this.weight = weight;
+    this.stagingCapacity = stagingCapacity;
+    this.flushImmediately = flushImmediately;
+  }
+
+  static EventLane[] all() {
+    return VALUES;
+  }
+
+  static EventLane of(MineAdsEvent event) {
+    return switch (event.getDataCase()) {
+      case INITIAL_TRANSACTION_DATA, EXPIRY_TRANSACTION_DATA, RENEWAL_TRANSACTION_DATA, CHARGEBACK_TRANSACTION_DATA,
+           REFUND_TRANSACTION_DATA -> TRANSACTIONS;
+      case JOIN_DATA, LEAVE_DATA, SETTINGS_DATA, CLIENT_BRAND_DATA -> SESSIONS;
+      default -> BULK;
+    };
+  }
+
+  String directoryName() {
+    return directoryName;
+  }
+
+  int weight() {
+    return weight;
+  }
+
+  int stagingCapacity() {
+    return stagingCapacity;
+  }
+
+  boolean flushImmediately() {
+    return flushImmediately;
+  }
+}
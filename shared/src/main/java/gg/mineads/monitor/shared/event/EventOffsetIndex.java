@@ -0,0 +1,134 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.event.generated.EventBatch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Side index of a stored batch: the event id hash and byte range of every event field in the uncompressed
+ * {@link EventBatch}. A partial retry uses it to cut the rejected events out of the batch without parsing it.
+ *
+ * <p>Events are matched by the hash of their id, so a collision only means an extra event is retried.
+ */
+final class EventOffsetIndex {
+  static final int ENTRY_BYTES = 12;
+
+  // idHash, offset, length triples in batch order
+  private final int[] entries;
+  private final int size;
+
+  private EventOffsetIndex(int[] entries, int size) {
+    this.entries = entries;
+    this.size = size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void writeTo(ByteBuffer target) {
+    for (int i = 0; i < size * 3; i++) {
+      target.putInt(entries[i]);
+    }
+  }
+
+  static EventOffsetIndex read(ByteBuffer source, int size) {
+    int[] entries = new int[size * 3];
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = source.getInt();
+    }
+    return new EventOffsetIndex(entries, size);
+  }
+
+  /**
+   * Copies the events with one of the given ids out of an uncompressed batch. Fields written after the last event,
+   * such as the server id, are kept.
+   *
+   * @return the reduced batch, without events if none matched
+   * @throws IOException if the index does not describe the batch
+   */
+  Slice slice(byte[] batch, Set<String> eventIds) throws IOException {
+    if (size == 0) {
+      throw new IOException("Event index is empty");
+    }
+    int eventsEnd = entries[(size - 1) * 3 + 1] + entries[(size - 1) * 3 + 2];
+    if (eventsEnd > batch.length) {
+      throw new IOException("Event index ends at byte " + eventsEnd + " of a " + batch.length + " byte batch");
+    }
+
+    int[] idHashes = eventIds.stream().mapToInt(String::hashCode).sorted().toArray();
+    Builder builder = new Builder(Math.min(size, idHashes.length));
+    byte[] target = new byte[batch.length];
+    int written = 0;
+    for (int i = 0; i < size; i++) {
+      int idHash = entries[i * 3];
+      int offset = entries[i * 3 + 1];
+      int length = entries[i * 3 + 2];
+      if (Arrays.binarySearch(idHashes, idHash) >= 0) {
+        builder.add(idHash, written, length);
+        System.arraycopy(batch, offset, target, written, length);
+        written += length;
+      }
+    }
+    if (builder.size == 0) {
+      return new Slice(new byte[0], 0, builder.build());
+    }
+
+    int tailLength = batch.length - eventsEnd;
+    System.arraycopy(batch, eventsEnd, target, written, tailLength);
+    written += tailLength;
+    return new Slice(Arrays.copyOf(target, written), builder.size, builder.build());
+  }
+
+  record Slice(byte[] batch, int eventCount, EventOffsetIndex index) {}
+
+  static final class Builder {
+    private int[] entries;
+    private int size;
+
+    Builder(int expectedEvents) {
+      this.entries = new int[Math.max(1, expectedEvents) * 3];
+    }
+
+    /**
+     * @param offset start of the event's field, including its tag and length prefix
+     */
+    void add(String eventId, int offset, int length) {
+      add(eventId.hashCode(), offset, length);
+    }
+
+    private void add(int idHash, int offset, int length) {
+      if ((size + 1) * 3 > entries.length) {
+        entries = Arrays.copyOf(entries, entries.length * 2);
+      }
+      entries[size * 3] = idHash;
+      entries[size * 3 + 1] = offset;
+      entries[size * 3 + 2] = length;
+      size++;
+    }
+
+    EventOffsetIndex build() {
+      return new EventOffsetIndex(entries, size);
+    }
+  }
+}
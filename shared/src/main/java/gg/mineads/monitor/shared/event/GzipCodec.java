@@ -0,0 +1,48 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+final class GzipCodec implements PayloadCodec {
+  @Override
+  public String contentEncoding() {
+    return "gzip";
+  }
+
+  @Override
+  public OutputStream compress(OutputStream target) throws IOException {
+    return PooledGzip.compress(target);
+  }
+
+  @Override
+  public byte[] compress(byte[] data) throws IOException {
+    return PooledGzip.gzip(data);
+  }
+
+  @Override
+  public byte[] decompress(byte[] payload) throws IOException {
+    return PooledGzip.gunzip(payload);
+  }
+
+  @Override
+  public boolean isEncoded(byte[] payload) {
+    return payload.length >= 2 && payload[0] == (byte) 0x1f && payload[1] == (byte) 0x8b;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import gg.mineads.monitor.shared.event.generated.IngestResponse;
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Reads an ingest response as its chunks arrive, gunzipping each on receipt, and parses it once the body is complete.
+ * Used with {@link java.net.http.HttpClient#sendAsync}, so no thread waits for an upload to finish.
+ */
+@Log
+final class IngestResponseSubscriber implements HttpResponse.BodySubscriber<IngestResponseSubscriber.Body> {
+  // Far above any real response, bounds what a misbehaving endpoint can make us hold
+  private static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+
+  private final CompletableFuture<Body> body = new CompletableFuture<>();
+  private final String contentEncoding;
+  private final ByteArrayOutputStream plainBody = new ByteArrayOutputStream();
+  private PooledGzip.Decoder decoder;
+  private Flow.Subscription subscription;
+
+  private IngestResponseSubscriber(String contentEncoding) {
+    this.contentEncoding = contentEncoding;
+  }
+
+  static HttpResponse.BodyHandler<Body> handler() {
+    return responseInfo -> new IngestResponseSubscriber(responseInfo.headers().firstValue("Content-Encoding").orElse(""));
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    this.subscription = subscription;
+    switch (contentEncoding) {
+      case "" -> {
+        // read as is
+      }
+      case "gzip" -> decoder = PooledGzip.decoder(MAX_BODY_BYTES);
+      default -> {
+        subscription.cancel();
+        body.completeExceptionally(new IOException("Unexpected Content-Encoding: " + contentEncoding));
+        return;
+      }
+    }
+    subscription.request(1);
+  }
+
+  @Override
+  public void onNext(List<ByteBuffer> chunks) {
+    if (body.isDone()) {
+      return;
+    }
+
+    try {
+      for (ByteBuffer chunk : chunks) {
+        if (decoder != null) {
+          // Fails as soon as the decoded body would exceed the limit
+          decoder.update(chunk);
+        } else {
+          if (plainBody.size() + (long) chunk.remaining() > MAX_BODY_BYTES) {
+            throw new IOException("Ingest response exceeds " + MAX_BODY_BYTES + " bytes");
+          }
+          byte[] bytes = new byte[chunk.remaining()];
+          chunk.get(bytes);
+          plainBody.write(bytes, 0, bytes.length);
+        }
+      }
+    } catch (IOException e) {
+      subscription.cancel();
+      fail(e);
+      return;
+    }
+    subscription.request(1);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    fail(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    if (body.isDone()) {
+      return;
+    }
+
+    try {
+      byte[] bytes = decoder != null ? decoder.finish() : plainBody.toByteArray();
+      body.complete(new Body(bytes, parse(bytes)));
+    } catch (IOException e) {
+      body.completeExceptionally(e);
+    } finally {
+      releaseDecoder();
+    }
+  }
+
+  @Override
+  public CompletionStage<Body> getBody() {
+    return body;
+  }
+
+  private void fail(Throwable throwable) {
+    releaseDecoder();
+    body.completeExceptionally(throwable);
+  }
+
+  private void releaseDecoder() {
+    if (decoder != null) {
+      decoder.close();
+      decoder = null;
+    }
+  }
+
+  private static IngestResponse parse(byte[] bytes) {
+    try {
+      return IngestResponse.parseFrom(bytes);
+    } catch (InvalidProtocolBufferException e) {
+      log.severe("Failed to parse protobuf ingest response: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @param bytes          the decoded body
+   * @param ingestResponse the parsed body, or null if it is not a valid {@link IngestResponse}
+   */
+  record Body(byte[] bytes, IngestResponse ingestResponse) {}
+}
@@ -0,0 +1,123 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.config.Config;
+import gg.mineads.monitor.shared.event.generated.MineAdsEvent;
+import lombok.extern.java.Log;
+
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Trims or drops new events while buffered events approach the budgets of {@link Config.LoadShedding}.
+ *
+ * <p>Pressure is the highest usage ratio of the staged event, queue heap and spool budgets. Chat message content is
+ * dropped from 75%, chat, command and heartbeat events from 90%, and every event except transactions from 100%.
+ */
+@Log
+final class LoadShedder {
+  private static final double STRIP_CONTENT_PRESSURE = 0.75;
+  private static final double SHED_BULK_PRESSURE = 0.9;
+  private static final double SHED_ALL_PRESSURE = 1.0;
+  private static final MineAdsEvent.DataCase[] DATA_CASES = MineAdsEvent.DataCase.values();
+  private static final Config.LoadShedding DEFAULT_SETTINGS = new Config.LoadShedding();
+
+  private final Supplier<Config> configSupplier;
+  private final AtomicLongArray shedEvents = new AtomicLongArray(DATA_CASES.length);
+  private final AtomicLong strippedChatMessages = new AtomicLong();
+  // Pressure of the durable queues, refreshed after flushes and on the periodic tick
+  private volatile double storagePressure = 0;
+  private long reportedTotal = 0;
+
+  LoadShedder(Supplier<Config> configSupplier) {
+    this.configSupplier = configSupplier;
+  }
+
+  void updateStorage(long queueHeapBytes, long spoolBytes) {
+    Config.LoadShedding settings = settings(configSupplier.get());
+    storagePressure = Math.max(ratio(queueHeapBytes, settings.getMaxQueueHeapBytes()), ratio(spoolBytes, settings.getMaxSpoolBytes()));
+  }
+
+  /**
+   * @param stagedEvents events currently staged across all lanes
+   * @param config       the configuration snapshot the caller is working with
+   * @return the event to stage, possibly without its chat message, or null if it was dropped
+   */
+  MineAdsEvent apply(MineAdsEvent event, int stagedEvents, Config config) {
+    double pressure = Math.max(storagePressure, ratio(stagedEvents, settings(config).getMaxStagedEvents()));
+    if (pressure < STRIP_CONTENT_PRESSURE) {
+      return event;
+    }
+
+    return switch (EventLane.of(event)) {
+      case TRANSACTIONS -> event;
+      case SESSIONS -> pressure >= SHED_ALL_PRESSURE ? shed(event) : event;
+      case BULK -> {
+        if (pressure >= SHED_BULK_PRESSURE) {
+          yield shed(event);
+        }
+        if (event.hasChatData() && event.getChatData().hasMessage()) {
+          strippedChatMessages.incrementAndGet();
+          yield event.toBuilder()
+            .setChatData(event.getChatData().toBuilder().clearMessage())
+            .build();
+        }
+        yield event;
+      }
+    };
+  }
+
+  private MineAdsEvent shed(MineAdsEvent event) {
+    shedEvents.incrementAndGet(event.getDataCase().ordinal());
+    return null;
+  }
+
+  /**
+   * Logs the shed totals if they changed since the last report. Called from the periodic tick.
+   */
+  synchronized void report() {
+    long total = 0;
+    StringJoiner perType = new StringJoiner(", ");
+    for (MineAdsEvent.DataCase dataCase : DATA_CASES) {
+      long shed = shedEvents.get(dataCase.ordinal());
+      if (shed > 0) {
+        total += shed;
+        perType.add(dataCase.name() + "=" + shed);
+      }
+    }
+    total += strippedChatMessages.get();
+    if (total == reportedTotal) {
+      return;
+    }
+
+    reportedTotal = total;
+    log.warning("Shedding events to stay within the load shedding budgets. Dropped since startup: "
+      + (perType.length() == 0 ? "none" : perType) + "; chat messages sent without content: " + strippedChatMessages.get());
+  }
+
+  private static Config.LoadShedding settings(Config config) {
+    return config != null && config.getLoadShedding() != null ? config.getLoadShedding() : DEFAULT_SETTINGS;
+  }
+
+  private static double ratio(long used, long budget) {
+    return budget <= 0 ? 0 : (double) used / budget;
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.config.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compression applied to batch payloads, sent as the request's {@code Content-Encoding}.
+ *
+ * <p>Payloads are self-describing: the codec of a stored batch is recognised from its magic bytes, so batches
+ * written with different codecs can share the durable queue.
+ */
+interface PayloadCodec {
+  PayloadCodec GZIP = new GzipCodec();
+  PayloadCodec ZSTD = new ZstdCodec();
+
+  String contentEncoding();
+
+  /**
+   * Wraps a stream so that everything written to it is compressed. Closing the returned stream closes the target.
+   */
+  OutputStream compress(OutputStream target) throws IOException;
+
+  byte[] decompress(byte[] payload) throws IOException;
+
+  boolean isEncoded(byte[] payload);
+
+  default byte[] compress(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+    try (OutputStream output = compress(bytes)) {
+      output.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  static PayloadCodec forSetting(Config.CompressionCodec setting) {
+    return setting == Config.CompressionCodec.ZSTD ? ZSTD : GZIP;
+  }
+
+  /**
+   * @return the codec the payload was written with, gzip if it is not recognised
+   */
+  static PayloadCodec detect(byte[] payload) {
+    return ZSTD.isEncoded(payload) ? ZSTD : GZIP;
+  }
+}
@@ -17,43 +17,116 @@
  */
 package gg.mineads.monitor.shared.event;
 
+import gg.mineads.monitor.shared.config.Config;
 import gg.mineads.monitor.shared.scheduler.MineAdsScheduler;
 import lombok.extern.java.Log;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
+/**
+ * Durable FIFO of compressed batches backed by an append-only, segmented log.
+ *
+ * <p>Every append is a single sequential write to the active segment. Records are framed as
+ * {@code [int bodyLength][int crc32][int attempt][long index][long createdAt][int eventCount][int payloadLength]
+ * [int indexEntries][payload][event index]} so a torn write at the tail of a segment is detected on restore. The
+ * lowest unacknowledged index is checkpointed periodically, and segments whose records are all below it are
+ * deleted whole. Segments written by older versions lack the attempt and the event index but are still read.
+ *
+ * <p>A batch that is partially retried is written again under the same index. On restore the record in the newest
+ * segment wins. The attempt count of a retried batch is rewritten in place, so retries resume after a restart.
+ *
+ * <p>Only the record headers are kept in memory. Payloads stay in the segment files and are read when a batch is
+ * handed to the sender, through a memory mapping for sealed segments and a positional read for the active one.
+ *
+ * <p>On startup only the newest segment is read before the queue accepts appends. Older segments are restored in
+ * the background and their batches are handed out before anything appended since startup.
+ *
+ * <p>How quickly appends reach the disk is controlled by {@link Config.DurabilityMode}. In group commit mode
+ * a single sync covers every batch appended since the previous one, bounded by a batch count and a time window.
+ */
 @Log
 final class PersistentBatchQueue implements AutoCloseable {
   private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(3);
-  private static final long PERSIST_INTERVAL_SECONDS = 15;
+  private static final long CHECKPOINT_INTERVAL_SECONDS = 5;
   private static final long RETENTION_INTERVAL_SECONDS = 5;
+  private static final long SEGMENT_SIZE_BYTES = 4L * 1024 * 1024;
+  private static final int SEGMENT_MAGIC = 0x4D415131; // "MAQ1"
+  private static final int SEGMENT_VERSION = 2;
+  private static final int LEGACY_SEGMENT_VERSION = 1;
+  private static final int SEGMENT_HEADER_BYTES = 8;
+  // The attempt is part of the frame, not the checksummed body, so it can be rewritten in place
+  private static final int RECORD_FRAME_BYTES = 12;
+  private static final int RECORD_BODY_HEADER_BYTES = 28;
+  private static final int LEGACY_RECORD_FRAME_BYTES = 8;
+  private static final int LEGACY_RECORD_BODY_HEADER_BYTES = 24;
+  // Rough heap footprint of a queue entry including its slot in a deque or the in-flight map
+  private static final int ENTRY_HEAP_BYTES = 96;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String CHECKPOINT_FILE = "checkpoint.dat";
+  private static final String LEGACY_QUEUE_FILE = "durable-queue.dat";
+  private static final Config.DurableQueue DEFAULT_SETTINGS = new Config.DurableQueue();
 
-  private final Path queueFile;
-  private final int persistThreshold;
+  private final Path queueDir;
+  private final Path checkpointFile;
+  private final MineAdsScheduler scheduler;
+  private final Supplier<Config> configSupplier;
+  // Batches restored from disk at startup, always handed out before the batches appended since
+  private final Deque<QueueEntry> restored = new ArrayDeque<>();
   private final Deque<QueueEntry> queue = new ArrayDeque<>();
+  // Batches handed to the sender that have been neither acknowledged nor rolled back yet
+  private final NavigableMap<Long, QueueEntry> inFlight = new TreeMap<>();
+  // Segments ordered by base index; the last one is the active segment once something was appended
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  // Acknowledged segments that could not be deleted yet, e.g. while still mapped on Windows
+  private final List<Path> pendingDeletes = new ArrayList<>();
   private final ReentrantLock lock = new ReentrantLock();
-  private final AtomicLong nextIndex = new AtomicLong();
+  private long nextIndex = 0;
+  private long checkpointedIndex = -1;
+  // Indices below this were written before startup
+  private long restoreBoundary = 0;
+  private boolean restoring = false;
+  private FileChannel activeChannel;
+  private Segment activeSegment;
+  private boolean writeFailing = false;
+  // Payloads held by entries that could not be written to disk
+  private long heapPayloadBytes = 0;
+  private int uncommittedBatches = 0;
+  private boolean commitScheduled = false;
   private volatile boolean closed = false;
 
-  PersistentBatchQueue(Path queueDir, MineAdsScheduler scheduler, int persistThreshold) {
-    this.persistThreshold = persistThreshold;
-    this.queueFile = queueDir.resolve("durable-queue.dat");
+  PersistentBatchQueue(Path queueDir, MineAdsScheduler scheduler, Supplier<Config> configSupplier) {
+    this.queueDir = queueDir;
+    this.checkpointFile = queueDir.resolve(CHECKPOINT_FILE);
+    this.scheduler = scheduler;
+    this.configSupplier = configSupplier;
 
     try {
       Files.createDirectories(queueDir);
@@ -61,44 +134,82 @@ final class PersistentBatchQueue implements AutoCloseable {
       throw new RuntimeException("Failed to create queue directory " + queueDir, e);
     }
 
-    restoreFromDisk();
-    persistQueueIfNeeded();
-    scheduler.scheduleAsync(this::persistQueueIfNeeded, PERSIST_INTERVAL_SECONDS, PERSIST_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    openNewestSegment();
+    scheduler.scheduleAsync(this::checkpoint, CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
     scheduler.scheduleAsync(this::runRetention, RETENTION_INTERVAL_SECONDS, RETENTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
   }
 
-  void append(byte[] payload, int eventCount) {
-    int sizeAfter;
+  /**
+   * Appends a batch. The payload is copied, so the caller may reuse its buffer once this returns.
+   */
+  void append(ByteBuffer payload, int eventCount, EventOffsetIndex eventIndex) {
     lock.lock();
     try {
-      queue.addLast(new QueueEntry(nextIndex.getAndIncrement(), 0, eventCount, System.currentTimeMillis(), payload));
-      sizeAfter = queue.size();
+      QueueEntry entry = writeRecord(nextIndex++, 0, eventCount, System.currentTimeMillis(), payload, eventIndex, false);
+      if (entry.segment() != null) {
+        commitAppended();
+      }
+      queue.addLast(entry);
     } finally {
       lock.unlock();
     }
-
-    if (sizeAfter > persistThreshold) {
-      persistQueueIfNeeded();
-    }
   }
 
   BatchRecord readNext() {
+    return readNext(Integer.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Leases the next batch only if it fits the given budget, so consecutive batches can be combined into one upload.
+   */
+  BatchRecord readNext(int maxEvents, long maxPayloadBytes) {
     lock.lock();
     try {
-      QueueEntry entry = queue.pollFirst();
-      if (entry == null) {
+      Deque<QueueEntry> source = !restored.isEmpty() || restoring ? restored : queue;
+      QueueEntry entry = source.peekFirst();
+      if (entry == null || entry.eventCount() > maxEvents || entry.payloadLength() > maxPayloadBytes) {
         return null;
       }
+      source.pollFirst();
+      inFlight.put(entry.index(), entry);
       return new BatchRecord(entry, this);
     } finally {
       lock.unlock();
     }
   }
 
+  /**
+   * Estimated heap used by the queue's entries and by payloads that could not be written to disk.
+   */
+  long heapBytes() {
+    lock.lock();
+    try {
+      return (long) (restored.size() + queue.size() + inFlight.size()) * ENTRY_HEAP_BYTES + heapPayloadBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Size of the segment files, including acknowledged batches in segments that were not deleted yet.
+   */
+  long spoolBytes() {
+    lock.lock();
+    try {
+      long bytes = 0;
+      for (Segment segment : segments) {
+        bytes += segment.size();
+      }
+      return bytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
   boolean hasMore() {
     lock.lock();
     try {
-      return !queue.isEmpty();
+      return !restored.isEmpty() || (!restoring && !queue.isEmpty());
     } finally {
       lock.unlock();
     }
@@ -109,8 +220,24 @@ final class PersistentBatchQueue implements AutoCloseable {
     if (closed) {
       return;
     }
-    persistQueueIfNeeded();
-    closed = true;
+
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      if (!restoring) {
+        writeCheckpoint();
+      }
+      syncActiveSegment();
+      closeActiveSegment();
+      closed = true;
+    } catch (IOException e) {
+      log.warning("Failed to write durable queue checkpoint: " + e.getMessage());
+      closed = true;
+    } finally {
+      lock.unlock();
+    }
   }
 
   private void runRetention() {
@@ -118,148 +245,758 @@ final class PersistentBatchQueue implements AutoCloseable {
       return;
     }
 
-    boolean mutated = false;
     lock.lock();
     try {
       long cutoff = System.currentTimeMillis() - RETENTION_MILLIS;
-      while (!queue.isEmpty() && queue.peekFirst().createdAt() < cutoff) {
-        queue.pollFirst();
-        mutated = true;
+      int expired = expireOlderThan(restored, cutoff) + expireOlderThan(queue, cutoff);
+      if (expired > 0) {
+        log.warning("Dropped " + expired + " stored batches older than the retention period");
       }
     } finally {
       lock.unlock();
     }
+  }
+
+  private int expireOlderThan(Deque<QueueEntry> entries, long cutoff) {
+    int expired = 0;
+    while (!entries.isEmpty() && entries.peekFirst().createdAt() < cutoff) {
+      releaseHeapPayload(entries.pollFirst());
+      expired++;
+    }
+    return expired;
+  }
 
-    if (mutated) {
-      persistQueueIfNeeded();
+  private void releaseHeapPayload(QueueEntry entry) {
+    if (entry.heapPayload() != null) {
+      heapPayloadBytes -= entry.payloadLength();
     }
   }
 
-  private void restoreFromDisk() {
-    if (!Files.exists(queueFile)) {
+  /**
+   * Records the lowest unacknowledged index and deletes segments that only contain acknowledged batches.
+   */
+  private void checkpoint() {
+    if (closed) {
       return;
     }
 
-    long highestIndex = -1;
-    try (InputStream fileStream = Files.newInputStream(queueFile, StandardOpenOption.READ);
-         BufferedInputStream buffered = new BufferedInputStream(fileStream);
-         GZIPInputStream gzipInputStream = new GZIPInputStream(buffered);
-         DataInputStream dataInput = new DataInputStream(gzipInputStream)) {
-      int count = dataInput.readInt();
-      lock.lock();
-      try {
-        for (int i = 0; i < count; i++) {
-          long index = dataInput.readLong();
-          int attempt = dataInput.readInt();
-          int eventCount = dataInput.readInt();
-          long createdAt = dataInput.readLong();
-          int payloadLength = dataInput.readInt();
-          byte[] payload = new byte[payloadLength];
-          dataInput.readFully(payload);
-          queue.addLast(new QueueEntry(index, attempt, eventCount, createdAt, payload));
-          highestIndex = Math.max(highestIndex, index);
-        }
-      } finally {
-        lock.unlock();
+    lock.lock();
+    try {
+      // Segments that are still being restored may hold batches below every index known so far
+      if (closed || restoring) {
+        return;
       }
+      writeCheckpoint();
+      deleteAcknowledgedSegments();
     } catch (IOException e) {
-      log.warning("Failed to restore durable queue: " + e.getMessage());
-      lock.lock();
+      log.warning("Failed to write durable queue checkpoint: " + e.getMessage());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long lowestUnacknowledgedIndex() {
+    long lowest = nextIndex;
+    if (!inFlight.isEmpty()) {
+      lowest = Math.min(lowest, inFlight.firstKey());
+    }
+    if (!restored.isEmpty()) {
+      lowest = Math.min(lowest, restored.peekFirst().index());
+    }
+    if (!queue.isEmpty()) {
+      lowest = Math.min(lowest, queue.peekFirst().index());
+    }
+    return lowest;
+  }
+
+  private void writeCheckpoint() throws IOException {
+    long lowest = lowestUnacknowledgedIndex();
+    if (lowest == checkpointedIndex) {
+      return;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(12);
+    buffer.putLong(lowest);
+    buffer.putInt(crc(buffer.array(), 0, 8));
+    Path tempFile = queueDir.resolve(CHECKPOINT_FILE + ".tmp");
+    Files.write(tempFile, buffer.array());
+    Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    checkpointedIndex = lowest;
+  }
+
+  private void deleteAcknowledgedSegments() {
+    long lowest = lowestUnacknowledgedIndex();
+    while (!segments.isEmpty()) {
+      Segment oldest = segments.peekFirst();
+      if (oldest == activeSegment || oldest.lastIndex() >= lowest) {
+        break;
+      }
+
+      segments.pollFirst();
+      // Dropping the mapping lets it be released; until then Windows refuses to delete the file
+      oldest.unmap();
+      pendingDeletes.add(oldest.path());
+    }
+
+    Iterator<Path> iterator = pendingDeletes.iterator();
+    while (iterator.hasNext()) {
+      Path path = iterator.next();
       try {
-        queue.clear();
-      } finally {
-        lock.unlock();
+        Files.deleteIfExists(path);
+        iterator.remove();
+      } catch (IOException e) {
+        log.fine("Deferring deletion of acknowledged queue segment " + path.getFileName() + ": " + e.getMessage());
       }
-    } finally {
-      deletePersistedFileSilently();
     }
+  }
 
-    if (highestIndex >= 0) {
-      nextIndex.set(highestIndex + 1);
+  private Config.DurableQueue settings() {
+    Config config = configSupplier.get();
+    return config != null && config.getDurableQueue() != null ? config.getDurableQueue() : DEFAULT_SETTINGS;
+  }
+
+  /**
+   * Applies the durability mode to a record that was just written to the active segment.
+   */
+  private void commitAppended() {
+    Config.DurableQueue settings = settings();
+    switch (settings.getDurability()) {
+      case NONE -> {
+        // the operating system decides when to write back
+      }
+      case ALWAYS -> syncActiveSegment();
+      case GROUP_COMMIT -> {
+        uncommittedBatches++;
+        if (uncommittedBatches >= Math.max(1, settings.getCommitBatchCount())) {
+          syncActiveSegment();
+        } else if (!commitScheduled) {
+          // One timer per commit window rather than one per batch
+          commitScheduled = true;
+          scheduler.scheduleAsyncDelayed(this::runScheduledCommit, Math.max(1, settings.getCommitIntervalMillis()), TimeUnit.MILLISECONDS);
+        }
+      }
     }
   }
 
-  private void persistQueueIfNeeded() {
-    if (closed) {
+  private void runScheduledCommit() {
+    lock.lock();
+    try {
+      commitScheduled = false;
+      if (!closed) {
+        syncActiveSegment();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void syncActiveSegment() {
+    if (activeChannel == null) {
+      uncommittedBatches = 0;
       return;
     }
 
+    try {
+      activeChannel.force(false);
+      uncommittedBatches = 0;
+    } catch (IOException e) {
+      log.warning("Failed to sync durable queue segment to disk: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Appends a record to the active segment.
+   *
+   * @param replacement whether the index was written before, in which case a new segment must not be named after it
+   * @return an entry pointing at the written payload, or one holding the payload itself if the write failed
+   */
+  private QueueEntry writeRecord(long index, int attempt, int eventCount, long createdAt, ByteBuffer payload,
+                                 EventOffsetIndex eventIndex, boolean replacement) {
+    int payloadLength = payload.remaining();
+    int indexEntries = eventIndex == null ? 0 : eventIndex.size();
+    try {
+      int bodyLength = RECORD_BODY_HEADER_BYTES + payloadLength + indexEntries * EventOffsetIndex.ENTRY_BYTES;
+      int recordLength = RECORD_FRAME_BYTES + bodyLength;
+      if (activeChannel == null || activeSegment.size() + recordLength > SEGMENT_SIZE_BYTES) {
+        rollSegment(replacement ? nextIndex++ : index);
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(RECORD_FRAME_BYTES + RECORD_BODY_HEADER_BYTES);
+      header.putInt(bodyLength);
+      header.putInt(0); // CRC placeholder
+      header.putInt(attempt);
+      header.putLong(index);
+      header.putLong(createdAt);
+      header.putInt(eventCount);
+      header.putInt(payloadLength);
+      header.putInt(indexEntries);
+
+      ByteBuffer indexBuffer = ByteBuffer.allocate(indexEntries * EventOffsetIndex.ENTRY_BYTES);
+      if (eventIndex != null) {
+        eventIndex.writeTo(indexBuffer);
+      }
+      indexBuffer.flip();
+
+      CRC32 crc = new CRC32();
+      crc.update(header.array(), RECORD_FRAME_BYTES, RECORD_BODY_HEADER_BYTES);
+      crc.update(payload.duplicate());
+      crc.update(indexBuffer.duplicate());
+      header.putInt(4, (int) crc.getValue());
+      header.flip();
+
+      ByteBuffer[] buffers = {header, payload.duplicate(), indexBuffer};
+      while (header.hasRemaining() || buffers[1].hasRemaining() || indexBuffer.hasRemaining()) {
+        activeChannel.write(buffers);
+      }
+
+      long recordPosition = activeSegment.size();
+      activeSegment.recordAppended(index, recordLength);
+      if (writeFailing) {
+        writeFailing = false;
+        log.info("Durable queue writes recovered");
+      }
+      return new QueueEntry(index, attempt, eventCount, createdAt, activeSegment, recordPosition + 8,
+        recordPosition + RECORD_FRAME_BYTES + RECORD_BODY_HEADER_BYTES, payloadLength, indexEntries, null, null);
+    } catch (IOException e) {
+      // Keep the batch in memory so it can still be delivered while the server is running
+      if (!writeFailing) {
+        writeFailing = true;
+        log.warning("Failed to write batch to the durable queue, keeping it in memory only: " + e.getMessage());
+      }
+      closeActiveSegment();
+      byte[] heapPayload = new byte[payloadLength];
+      payload.duplicate().get(heapPayload);
+      heapPayloadBytes += payloadLength;
+      return new QueueEntry(index, attempt, eventCount, createdAt, null, -1, 0, payloadLength, indexEntries, heapPayload, eventIndex);
+    }
+  }
+
+  /**
+   * Stores a smaller version of a leased batch under the same index, e.g. only its rejected events.
+   * The old record is left in place and deleted with its segment.
+   */
+  private void replace(QueueEntry entry, ByteBuffer payload, int eventCount, EventOffsetIndex eventIndex, int attempt) {
     lock.lock();
     try {
       if (closed) {
         return;
       }
 
-      if (queue.size() > persistThreshold) {
-        writeQueueToFile();
+      QueueEntry written = writeRecord(entry.index(), attempt, eventCount, entry.createdAt(), payload, eventIndex, true);
+      if (written.segment() != null) {
+        commitAppended();
+      }
+      releaseHeapPayload(entry);
+      entry.moveTo(written);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Overwrites the attempt slot of a stored batch. Records from older versions have no slot and are written again.
+   */
+  private void updateAttempt(QueueEntry entry, int attempt) {
+    lock.lock();
+    try {
+      if (closed || entry.attempt() == attempt) {
+        return;
+      }
+      if (entry.segment() == null) {
+        entry.setAttempt(attempt);
+        return;
+      }
+      if (entry.attemptPosition() < 0) {
+        byte[] payload;
+        try {
+          payload = readPayload(entry);
+        } catch (IOException e) {
+          log.warning("Failed to read stored batch " + entry.index() + " to record its attempt: " + e.getMessage());
+          entry.setAttempt(attempt);
+          return;
+        }
+        replace(entry, ByteBuffer.wrap(payload), entry.eventCount(), null, attempt);
+        return;
+      }
+
+      ByteBuffer slot = ByteBuffer.allocate(4).putInt(0, attempt);
+      if (entry.segment() == activeSegment && activeChannel != null) {
+        writeFully(activeChannel, slot, entry.attemptPosition());
+        commitAppended();
       } else {
-        deletePersistedFile();
+        try (FileChannel channel = FileChannel.open(entry.segment().path(), StandardOpenOption.WRITE)) {
+          writeFully(channel, slot, entry.attemptPosition());
+          if (settings().getDurability() != Config.DurabilityMode.NONE) {
+            channel.force(false);
+          }
+        }
       }
+      entry.setAttempt(attempt);
+    } catch (IOException e) {
+      // The batch is still retried with the right attempt until the server stops
+      log.warning("Failed to record attempt of stored batch " + entry.index() + ": " + e.getMessage());
+      entry.setAttempt(attempt);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private byte[] readPayload(QueueEntry entry) throws IOException {
+    lock.lock();
+    try {
+      if (entry.segment() == null) {
+        return entry.heapPayload();
+      }
+      return readBytes(entry, entry.payloadPosition(), entry.payloadLength());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private EventOffsetIndex readEventIndex(QueueEntry entry) throws IOException {
+    lock.lock();
+    try {
+      if (entry.indexEntries() == 0) {
+        return null;
+      }
+      if (entry.segment() == null) {
+        return entry.heapEventIndex();
+      }
+      byte[] bytes = readBytes(entry, entry.payloadPosition() + entry.payloadLength(), entry.indexEntries() * EventOffsetIndex.ENTRY_BYTES);
+      return EventOffsetIndex.read(ByteBuffer.wrap(bytes), entry.indexEntries());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private byte[] readBytes(QueueEntry entry, long position, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    if (entry.segment() == activeSegment && activeChannel != null) {
+      // The active segment is still growing, so read it through the write channel instead of mapping it
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) {
+        int read = activeChannel.read(buffer, position);
+        if (read < 0) {
+          throw new EOFException("Stored batch " + entry.index() + " is truncated");
+        }
+        position += read;
+      }
+      return bytes;
+    }
+
+    ByteBuffer view = entry.segment().map().duplicate();
+    view.position(Math.toIntExact(position));
+    view.get(bytes);
+    return bytes;
+  }
+
+  private void rollSegment(long baseIndex) throws IOException {
+    // Batches waiting for a group commit live in the segment being closed
+    if (uncommittedBatches > 0) {
+      syncActiveSegment();
+    }
+    closeActiveSegment();
+
+    Path path = queueDir.resolve(segmentFileName(baseIndex));
+    FileChannel channel;
+    try {
+      // Never reuse a segment file, it may still hold records that are mapped or waiting to be delivered
+      channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (FileAlreadyExistsException e) {
+      log.severe("Durable queue segment " + path.getFileName() + " already exists, refusing to overwrite it");
+      throw e;
+    }
+    try {
+      ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+      header.putInt(SEGMENT_MAGIC);
+      header.putInt(SEGMENT_VERSION);
+      header.flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+
+    activeChannel = channel;
+    activeSegment = new Segment(path, baseIndex, SEGMENT_HEADER_BYTES);
+    segments.addLast(activeSegment);
+
+    if (settings().getDurability() != Config.DurabilityMode.NONE) {
+      syncQueueDirectory();
+    }
+  }
+
+  /**
+   * Makes the creation of a new segment file durable. Not supported on every platform, so failures are ignored.
+   */
+  private void syncQueueDirectory() {
+    try (FileChannel directory = FileChannel.open(queueDir, StandardOpenOption.READ)) {
+      directory.force(true);
+    } catch (IOException | RuntimeException ignored) {
+      // best effort, e.g. directories cannot be opened on Windows
+    }
+  }
+
+  private void closeActiveSegment() {
+    if (activeChannel == null) {
+      return;
+    }
+
+    try {
+      activeChannel.close();
+    } catch (IOException e) {
+      log.warning("Failed to close durable queue segment: " + e.getMessage());
+    }
+    activeChannel = null;
+    activeSegment = null;
+  }
+
+  /**
+   * Reads the newest segment so appends can continue its index sequence, then restores the rest in the background.
+   */
+  private void openNewestSegment() {
+    long startNanos = System.nanoTime();
+    long checkpoint = readCheckpoint();
+    List<Path> segmentFiles;
+    try (Stream<Path> files = Files.list(queueDir)) {
+      segmentFiles = files
+        .filter(path -> parseSegmentBaseIndex(path) >= 0)
+        .sorted(Comparator.comparingLong(PersistentBatchQueue::parseSegmentBaseIndex))
+        .toList();
     } catch (IOException e) {
-      log.warning("Failed to persist durable queue: " + e.getMessage());
+      log.warning("Failed to list durable queue segments: " + e.getMessage());
+      segmentFiles = List.of();
+    }
+
+    Deque<QueueEntry> newestEntries = new ArrayDeque<>();
+    Map<Long, QueueEntry> knownEntries = new HashMap<>();
+    List<Path> olderFiles = segmentFiles;
+    lock.lock();
+    try {
+      nextIndex = checkpoint;
+      if (!segmentFiles.isEmpty()) {
+        Path newestFile = segmentFiles.get(segmentFiles.size() - 1);
+        Segment newest = new Segment(newestFile, parseSegmentBaseIndex(newestFile), 0);
+        readSegment(newest, checkpoint, newestEntries, knownEntries);
+        segments.addLast(newest);
+        // A segment rolled for a replacement record is named after an index it does not hold, so the base index
+        // must not be handed out again either
+        nextIndex = Math.max(nextIndex, Math.max(newest.lastIndex(), newest.baseIndex()) + 1);
+        olderFiles = segmentFiles.subList(0, segmentFiles.size() - 1);
+      }
+      checkpointedIndex = checkpoint;
+      restoreBoundary = nextIndex;
+      restoring = true;
     } finally {
       lock.unlock();
     }
+
+    List<Path> filesToRestore = olderFiles;
+    scheduler.runAsync(() -> restoreFromDisk(filesToRestore, checkpoint, newestEntries, knownEntries, startNanos));
   }
 
-  private void writeQueueToFile() throws IOException {
-    try (OutputStream fileStream = Files.newOutputStream(queueFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-         BufferedOutputStream buffered = new BufferedOutputStream(fileStream);
-         GZIPOutputStream gzipOutputStream = new GZIPOutputStream(buffered);
-         DataOutputStream dataOutput = new DataOutputStream(gzipOutputStream)) {
-      dataOutput.writeInt(queue.size());
-      for (QueueEntry entry : queue) {
-        dataOutput.writeLong(entry.index());
-        dataOutput.writeInt(entry.attempt());
-        dataOutput.writeInt(entry.eventCount());
-        dataOutput.writeLong(entry.createdAt());
-        dataOutput.writeInt(entry.payload().length);
-        dataOutput.write(entry.payload());
+  private void restoreFromDisk(List<Path> segmentFiles, long checkpoint, Deque<QueueEntry> newestEntries,
+                               Map<Long, QueueEntry> knownEntries, long startNanos) {
+    int restoredCount = 0;
+    List<Segment> olderSegments = new ArrayList<>(segmentFiles.size());
+    try {
+      for (Path segmentFile : segmentFiles) {
+        if (closed) {
+          return;
+        }
+
+        Segment segment = new Segment(segmentFile, parseSegmentBaseIndex(segmentFile), 0);
+        Deque<QueueEntry> entries = new ArrayDeque<>();
+        readSegment(segment, checkpoint, entries, knownEntries);
+        olderSegments.add(segment);
+        restoredCount += entries.size();
+
+        // Make each segment available to the sender as soon as it was read
+        lock.lock();
+        try {
+          restored.addAll(entries);
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      lock.lock();
+      try {
+        // Partial retries are written after newer batches, so the newest segment is not in index order
+        List<QueueEntry> newest = new ArrayList<>(newestEntries);
+        newest.sort(Comparator.comparingLong(QueueEntry::index));
+        QueueEntry lastRestored = restored.peekLast();
+        if (!newest.isEmpty() && lastRestored != null && newest.get(0).index() < lastRestored.index()) {
+          newest.addAll(restored);
+          newest.sort(Comparator.comparingLong(QueueEntry::index));
+          restored.clear();
+        }
+        restored.addAll(newest);
+        for (int i = olderSegments.size() - 1; i >= 0; i--) {
+          segments.addFirst(olderSegments.get(i));
+        }
+        restoring = false;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    restoredCount += newestEntries.size();
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    if (restoredCount > 0) {
+      log.info("Restored " + restoredCount + " stored batches from the durable queue in " + elapsedMillis + "ms");
+    } else {
+      Config config = configSupplier.get();
+      if (config != null && config.isDebug()) {
+        log.info("[DEBUG] Opened durable queue in " + elapsedMillis + "ms");
+      }
+    }
+
+    migrateLegacyQueueFile();
+    checkpoint();
+  }
+
+  /**
+   * Reads the records of a segment. A record for an index in {@code knownEntries} replaces it if the known one was
+   * read from the same or an older segment, and is ignored otherwise.
+   */
+  private void readSegment(Segment segment, long checkpoint, Deque<QueueEntry> target, Map<Long, QueueEntry> knownEntries) {
+    MappedByteBuffer mapped;
+    try {
+      mapped = segment.map();
+    } catch (IOException e) {
+      log.warning("Failed to read durable queue segment " + segment.path().getFileName() + ": " + e.getMessage());
+      return;
+    }
+
+    int fileSize = mapped.capacity();
+    int version = fileSize >= SEGMENT_HEADER_BYTES ? mapped.getInt(4) : -1;
+    if (fileSize < SEGMENT_HEADER_BYTES || mapped.getInt(0) != SEGMENT_MAGIC || (version != SEGMENT_VERSION && version != LEGACY_SEGMENT_VERSION)) {
+      log.warning("Skipping unreadable durable queue segment " + segment.path().getFileName());
+      segment.unmap();
+      return;
+    }
+
+    boolean legacy = version == LEGACY_SEGMENT_VERSION;
+    int frameBytes = legacy ? LEGACY_RECORD_FRAME_BYTES : RECORD_FRAME_BYTES;
+    int bodyHeaderBytes = legacy ? LEGACY_RECORD_BODY_HEADER_BYTES : RECORD_BODY_HEADER_BYTES;
+
+    // Only headers are copied to the heap, payloads are checksummed in place
+    int position = SEGMENT_HEADER_BYTES;
+    boolean hasLiveRecords = false;
+    while (position < fileSize) {
+      if (fileSize - position < frameBytes + bodyHeaderBytes) {
+        log.warning("Ignoring truncated record at the end of " + segment.path().getFileName());
+        break;
+      }
+
+      int bodyStart = position + frameBytes;
+      int bodyLength = mapped.getInt(position);
+      int payloadLength = mapped.getInt(bodyStart + 20);
+      int indexEntries = legacy ? 0 : mapped.getInt(bodyStart + 24);
+      if (payloadLength < 0 || indexEntries < 0
+        || bodyLength != bodyHeaderBytes + payloadLength + (long) indexEntries * EventOffsetIndex.ENTRY_BYTES
+        || (long) bodyStart + bodyLength > fileSize) {
+        log.warning("Ignoring truncated record at the end of " + segment.path().getFileName());
+        break;
+      }
+
+      ByteBuffer body = mapped.duplicate();
+      body.position(bodyStart);
+      body.limit(bodyStart + bodyLength);
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      if ((int) crc.getValue() != mapped.getInt(position + 4)) {
+        log.warning("Ignoring corrupt record at the end of " + segment.path().getFileName());
+        break;
+      }
+
+      long index = mapped.getLong(bodyStart);
+      int recordLength = frameBytes + bodyLength;
+      segment.recordAppended(index, recordLength);
+
+      if (index >= checkpoint) {
+        int attempt = legacy ? 0 : mapped.getInt(position + 8);
+        QueueEntry entry = new QueueEntry(index, attempt, mapped.getInt(bodyStart + 16), mapped.getLong(bodyStart + 8),
+          segment, legacy ? -1 : position + 8, bodyStart + bodyHeaderBytes, payloadLength, indexEntries, null, null);
+        QueueEntry known = knownEntries.putIfAbsent(index, entry);
+        if (known == null) {
+          target.addLast(entry);
+          hasLiveRecords = true;
+        } else if (known.segment().baseIndex() <= segment.baseIndex()) {
+          // A partial retry of this batch; the known entry may already be leased, so it is updated under the lock
+          lock.lock();
+          try {
+            known.moveTo(entry);
+          } finally {
+            lock.unlock();
+          }
+          hasLiveRecords = true;
+        }
       }
+      position += recordLength;
+    }
+
+    if (!hasLiveRecords) {
+      segment.unmap();
     }
   }
 
-  private void deletePersistedFile() throws IOException {
-    Files.deleteIfExists(queueFile);
+  private long readCheckpoint() {
+    if (!Files.exists(checkpointFile)) {
+      return 0;
+    }
+
+    try {
+      byte[] bytes = Files.readAllBytes(checkpointFile);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      if (bytes.length == 12 && buffer.getInt(8) == crc(bytes, 0, 8)) {
+        return buffer.getLong(0);
+      }
+      log.warning("Durable queue checkpoint is corrupt, replaying all stored batches");
+    } catch (IOException e) {
+      log.warning("Failed to read durable queue checkpoint, replaying all stored batches: " + e.getMessage());
+    }
+    return 0;
   }
 
-  private void deletePersistedFileSilently() {
+  /**
+   * Moves batches from the gzip snapshot file used by older versions into the log.
+   */
+  private void migrateLegacyQueueFile() {
+    Path legacyFile = queueDir.resolve(LEGACY_QUEUE_FILE);
+    if (!Files.exists(legacyFile)) {
+      return;
+    }
+
+    int migrated = 0;
+    try (InputStream fileStream = Files.newInputStream(legacyFile, StandardOpenOption.READ);
+         InputStream gzipInputStream = PooledGzip.decompress(fileStream);
+         DataInputStream dataInput = new DataInputStream(new BufferedInputStream(gzipInputStream))) {
+      int count = dataInput.readInt();
+      for (int i = 0; i < count; i++) {
+        dataInput.readLong(); // legacy index, renumbered on append
+        dataInput.readInt(); // legacy attempt
+        int eventCount = dataInput.readInt();
+        long createdAt = dataInput.readLong();
+        byte[] payload = new byte[dataInput.readInt()];
+        dataInput.readFully(payload);
+
+        lock.lock();
+        try {
+          if (closed) {
+            return; // the legacy file is kept and migrated on the next start
+          }
+          queue.addLast(writeRecord(nextIndex++, 0, eventCount, createdAt, ByteBuffer.wrap(payload), null, false));
+          uncommittedBatches++;
+        } finally {
+          lock.unlock();
+        }
+        migrated++;
+      }
+    } catch (EOFException e) {
+      log.warning("Legacy durable queue file was truncated, migrated " + migrated + " batches");
+    } catch (IOException e) {
+      log.warning("Failed to migrate legacy durable queue file: " + e.getMessage());
+    }
+
+    // The legacy file is deleted below, so the migrated batches must be on disk first
+    lock.lock();
     try {
-      Files.deleteIfExists(queueFile);
+      syncActiveSegment();
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      Files.deleteIfExists(legacyFile);
     } catch (IOException ignored) {
       // best effort cleanup
     }
+
+    if (migrated > 0) {
+      log.info("Migrated " + migrated + " stored batches from the legacy durable queue file");
+    }
   }
 
-  private void requeueFirst(QueueEntry entry) {
-    if (closed) {
-      return;
+  private void acknowledge(QueueEntry entry) {
+    lock.lock();
+    try {
+      if (inFlight.remove(entry.index()) != null) {
+        releaseHeapPayload(entry);
+      }
+    } finally {
+      lock.unlock();
     }
+  }
 
+  private void requeue(QueueEntry entry) {
     lock.lock();
     try {
-      if (!closed) {
-        queue.addFirst(entry);
+      if (inFlight.remove(entry.index()) == null || closed) {
+        return;
+      }
+
+      // Several batches can be in flight at once, so put this one back at its original position
+      Deque<QueueEntry> target = entry.index() < restoreBoundary ? restored : queue;
+      Deque<QueueEntry> lowerEntries = new ArrayDeque<>();
+      while (!target.isEmpty() && target.peekFirst().index() < entry.index()) {
+        lowerEntries.push(target.pollFirst());
+      }
+      target.addFirst(entry);
+      while (!lowerEntries.isEmpty()) {
+        target.addFirst(lowerEntries.pop());
       }
     } finally {
       lock.unlock();
     }
   }
 
+  private static int crc(byte[] bytes, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+  private static String segmentFileName(long baseIndex) {
+    return SEGMENT_PREFIX + String.format("%020d", baseIndex) + SEGMENT_SUFFIX;
+  }
+
+  private static long parseSegmentBaseIndex(Path path) {
+    String name = path.getFileName().toString();
+    if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+      return -1;
+    }
+
+    try {
+      return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * A batch leased from the queue. Closing the record acknowledges it unless it was rolled back first.
+   */
   static final class BatchRecord implements AutoCloseable {
     private final QueueEntry entry;
     private final PersistentBatchQueue parent;
     private boolean rolledBack = false;
+    private boolean closed = false;
 
     BatchRecord(QueueEntry entry, PersistentBatchQueue parent) {
       this.entry = entry;
       this.parent = parent;
     }
 
-    long index() {
-      return entry.index();
-    }
-
     int attempt() {
       return entry.attempt();
     }
@@ -268,12 +1005,32 @@ final class PersistentBatchQueue implements AutoCloseable {
       return entry.eventCount();
     }
 
-    long createdAt() {
-      return entry.createdAt();
+    /**
+     * Reads the payload from the segment it was stored in. Not cached, callers keep it for as long as they need it.
+     */
+    byte[] payload() throws IOException {
+      return parent.readPayload(entry);
+    }
+
+    /**
+     * @return the positions of the batch's events, or null for batches stored without them
+     */
+    EventOffsetIndex eventIndex() throws IOException {
+      return parent.readEventIndex(entry);
+    }
+
+    /**
+     * Replaces the stored batch, e.g. with only its rejected events, so the smaller batch survives a restart.
+     */
+    void replace(ByteBuffer payload, int eventCount, EventOffsetIndex eventIndex, int attempt) {
+      parent.replace(entry, payload, eventCount, eventIndex, attempt);
     }
 
-    byte[] payload() {
-      return entry.payload();
+    /**
+     * Stores the number of failed uploads of this batch.
+     */
+    void setAttempt(int attempt) {
+      parent.updateAttempt(entry, attempt);
     }
 
     void rollback() {
@@ -281,14 +1038,164 @@ final class PersistentBatchQueue implements AutoCloseable {
         return;
       }
       rolledBack = true;
-      parent.requeueFirst(entry);
+      parent.requeue(entry);
     }
 
     @Override
     public void close() {
-      // no resources to release
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (!rolledBack) {
+        parent.acknowledge(entry);
+      }
     }
   }
 
-  private static final record QueueEntry(long index, int attempt, int eventCount, long createdAt, byte[] payload) {}
+  private static final class Segment {
+    private final Path path;
+    private final long baseIndex;
+    private long lastIndex;
+    private long size;
+    private MappedByteBuffer mapped;
+
+    Segment(Path path, long baseIndex, long size) {
+      this.path = path;
+      this.baseIndex = baseIndex;
+      this.lastIndex = baseIndex - 1;
+      this.size = size;
+    }
+
+    Path path() {
+      return path;
+    }
+
+    long baseIndex() {
+      return baseIndex;
+    }
+
+    long lastIndex() {
+      return lastIndex;
+    }
+
+    long size() {
+      return size;
+    }
+
+    void recordAppended(long index, int recordLength) {
+      lastIndex = Math.max(lastIndex, index);
+      size += recordLength;
+    }
+
+    /**
+     * Maps the segment read-only. Only used once the segment is sealed, so the mapping covers every record.
+     */
+    MappedByteBuffer map() throws IOException {
+      if (mapped == null) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+          mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+      }
+      return mapped;
+    }
+
+    void unmap() {
+      mapped = null;
+    }
+  }
+
+  /**
+   * In-memory index entry of a stored batch. The payload and event index are only held here if they could not be
+   * written to disk. Everything but the index and creation time changes when the batch is replaced, under the lock.
+   */
+  private static final class QueueEntry {
+    private final long index;
+    private final long createdAt;
+    private int attempt;
+    private int eventCount;
+    private Segment segment;
+    // -1 if the record has no attempt slot
+    private long attemptPosition;
+    private long payloadPosition;
+    private int payloadLength;
+    private int indexEntries;
+    private byte[] heapPayload;
+    private EventOffsetIndex heapEventIndex;
+
+    QueueEntry(long index, int attempt, int eventCount, long createdAt, Segment segment, long attemptPosition,
+               long payloadPosition, int payloadLength, int indexEntries, byte[] heapPayload, EventOffsetIndex heapEventIndex) {
+      this.index = index;
+      this.createdAt = createdAt;
+      this.attempt = attempt;
+      this.eventCount = eventCount;
+      this.segment = segment;
+      this.attemptPosition = attemptPosition;
+      this.payloadPosition = payloadPosition;
+      this.payloadLength = payloadLength;
+      this.indexEntries = indexEntries;
+      this.heapPayload = heapPayload;
+      this.heapEventIndex = heapEventIndex;
+    }
+
+    long index() {
+      return index;
+    }
+
+    long createdAt() {
+      return createdAt;
+    }
+
+    int attempt() {
+      return attempt;
+    }
+
+    int eventCount() {
+      return eventCount;
+    }
+
+    Segment segment() {
+      return segment;
+    }
+
+    long attemptPosition() {
+      return attemptPosition;
+    }
+
+    long payloadPosition() {
+      return payloadPosition;
+    }
+
+    int payloadLength() {
+      return payloadLength;
+    }
+
+    int indexEntries() {
+      return indexEntries;
+    }
+
+    byte[] heapPayload() {
+      return heapPayload;
+    }
+
+    EventOffsetIndex heapEventIndex() {
+      return heapEventIndex;
+    }
+
+    void setAttempt(int attempt) {
+      this.attempt = attempt;
+    }
+
+    void moveTo(QueueEntry replacement) {
+      attempt = replacement.attempt;
+      eventCount = replacement.eventCount;
+      segment = replacement.segment;
+      attemptPosition = replacement.attemptPosition;
+      payloadPosition = replacement.payloadPosition;
+      payloadLength = replacement.payloadLength;
+      indexEntries = replacement.indexEntries;
+      heapPayload = replacement.heapPayload;
+      heapEventIndex = replacement.heapEventIndex;
+    }
+  }
 }
@@ -0,0 +1,588 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip streams backed by pooled {@link Deflater}s, {@link Inflater}s and scratch buffers.
+ *
+ * <p>{@link java.util.zip.GZIPOutputStream} and {@link java.util.zip.GZIPInputStream} allocate native zlib state
+ * for every stream, which is only released when they are closed or collected. These streams write and parse the
+ * gzip framing themselves and borrow the zlib state from a small bounded pool instead, returning it on close.
+ * Decompression accepts concatenated gzip members, like {@code GZIPInputStream}.
+ */
+final class PooledGzip {
+  private static final int MAX_POOLED_CODERS = 8;
+  private static final int MAX_POOLED_BUFFERS = 16;
+  private static final int SCRATCH_BUFFER_BYTES = 8192;
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  // Same header as java.util.zip.GZIPOutputStream: deflate, no flags, no mtime, unknown OS
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+  private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(MAX_POOLED_CODERS);
+  private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(MAX_POOLED_CODERS);
+  private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  private PooledGzip() {
+  }
+
+  /**
+   * Wraps a stream so that everything written to it is gzip compressed. Closing the returned stream finishes the
+   * gzip member and closes the target.
+   */
+  static OutputStream compress(OutputStream target) throws IOException {
+    return new GzipOutputStream(target);
+  }
+
+  /**
+   * Wraps a gzip stream. Closing the returned stream closes the source.
+   */
+  static InputStream decompress(InputStream source) {
+    return new GzipInputStream(source);
+  }
+
+  /**
+   * Push counterpart of {@link #decompress(InputStream)}, for bodies that arrive in chunks. The decoder must be
+   * closed to return its zlib state.
+   *
+   * @param maxDecodedBytes how much the decoder may produce before it fails, so a small body cannot expand without bound
+   */
+  static Decoder decoder(int maxDecodedBytes) {
+    return new Decoder(maxDecodedBytes);
+  }
+
+  static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+    try (OutputStream output = compress(bytes)) {
+      output.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  static byte[] gunzip(byte[] data) throws IOException {
+    try (InputStream input = decompress(new ByteArrayInputStream(data))) {
+      return input.readAllBytes();
+    }
+  }
+
+  private static Deflater borrowDeflater() {
+    Deflater deflater = DEFLATERS.poll();
+    return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  }
+
+  private static void releaseDeflater(Deflater deflater) {
+    deflater.reset();
+    if (!DEFLATERS.offer(deflater)) {
+      deflater.end();
+    }
+  }
+
+  private static Inflater borrowInflater() {
+    Inflater inflater = INFLATERS.poll();
+    return inflater != null ? inflater : new Inflater(true);
+  }
+
+  private static void releaseInflater(Inflater inflater) {
+    inflater.reset();
+    if (!INFLATERS.offer(inflater)) {
+      inflater.end();
+    }
+  }
+
+  private static byte[] borrowBuffer() {
+    byte[] buffer = BUFFERS.poll();
+    return buffer != null ? buffer : new byte[SCRATCH_BUFFER_BYTES];
+  }
+
+  private static void releaseBuffer(byte[] buffer) {
+    BUFFERS.offer(buffer);
+  }
+
+  private static final class GzipOutputStream extends OutputStream {
+    private final OutputStream target;
+    private final CRC32 crc = new CRC32();
+    private Deflater deflater = borrowDeflater();
+    private byte[] buffer = borrowBuffer();
+
+    GzipOutputStream(OutputStream target) throws IOException {
+      this.target = target;
+      target.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      if (deflater == null) {
+        throw new IOException("Stream closed");
+      }
+      if (length == 0) {
+        return;
+      }
+
+      crc.update(bytes, offset, length);
+      deflater.setInput(bytes, offset, length);
+      // The caller may reuse its array once this returns, so consume all of it
+      while (!deflater.needsInput()) {
+        deflateToTarget();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (deflater == null) {
+        return;
+      }
+
+      try {
+        deflater.finish();
+        while (!deflater.finished()) {
+          deflateToTarget();
+        }
+        writeIntLE((int) crc.getValue());
+        writeIntLE((int) deflater.getBytesRead());
+      } finally {
+        releaseDeflater(deflater);
+        releaseBuffer(buffer);
+        deflater = null;
+        buffer = null;
+        target.close();
+      }
+    }
+
+    private void deflateToTarget() throws IOException {
+      int length = deflater.deflate(buffer, 0, buffer.length);
+      if (length > 0) {
+        target.write(buffer, 0, length);
+      }
+    }
+
+    private void writeIntLE(int value) throws IOException {
+      target.write(value & 0xff);
+      target.write((value >>> 8) & 0xff);
+      target.write((value >>> 16) & 0xff);
+      target.write((value >>> 24) & 0xff);
+    }
+  }
+
+  private static final class GzipInputStream extends InputStream {
+    private final InputStream source;
+    private final CRC32 crc = new CRC32();
+    private Inflater inflater = borrowInflater();
+    private byte[] buffer = borrowBuffer();
+    private int position = 0;
+    private int limit = 0;
+    private boolean memberStarted = false;
+    private boolean hasReadMember = false;
+    private boolean eof = false;
+
+    GzipInputStream(InputStream source) {
+      this.source = source;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      int read = read(single, 0, 1);
+      return read < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (inflater == null) {
+        throw new IOException("Stream closed");
+      }
+      if (length == 0) {
+        return 0;
+      }
+
+      while (!eof) {
+        if (!memberStarted) {
+          if (!readHeader()) {
+            eof = true;
+            break;
+          }
+          memberStarted = true;
+          inflater.setInput(buffer, position, limit - position);
+        }
+
+        int inflated;
+        try {
+          inflated = inflater.inflate(bytes, offset, length);
+        } catch (DataFormatException e) {
+          throw new ZipException(e.getMessage());
+        }
+        if (inflated > 0) {
+          crc.update(bytes, offset, inflated);
+          return inflated;
+        }
+
+        if (inflater.finished()) {
+          position = limit - inflater.getRemaining();
+          readTrailer();
+          inflater.reset();
+          crc.reset();
+          memberStarted = false;
+        } else if (inflater.needsDictionary()) {
+          throw new ZipException("Unexpected preset dictionary in gzip stream");
+        } else if (inflater.needsInput()) {
+          if (!fill()) {
+            throw new EOFException("Unexpected end of gzip stream");
+          }
+          inflater.setInput(buffer, position, limit - position);
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (inflater == null) {
+        return;
+      }
+
+      releaseInflater(inflater);
+      releaseBuffer(buffer);
+      inflater = null;
+      buffer = null;
+      source.close();
+    }
+
+    /**
+     * @return false if the source ended, or if what follows the previous member is not another gzip member
+     */
+    private boolean readHeader() throws IOException {
+      if (position == limit && !fill()) {
+        return false;
+      }
+
+      int magic = readUnsignedByte() | (readUnsignedByte() << 8);
+      if (magic != GZIP_MAGIC) {
+        if (!hasReadMember) {
+          throw new ZipException("Not in gzip format");
+        }
+        // Trailing bytes after the last member are ignored
+        return false;
+      }
+      if (readUnsignedByte() != Deflater.DEFLATED) {
+        throw new ZipException("Unsupported gzip compression method");
+      }
+
+      int flags = readUnsignedByte();
+      skipBytes(6); // mtime, extra flags, OS
+      if ((flags & FEXTRA) != 0) {
+        skipBytes(readUnsignedByte() | (readUnsignedByte() << 8));
+      }
+      if ((flags & FNAME) != 0) {
+        skipZeroTerminated();
+      }
+      if ((flags & FCOMMENT) != 0) {
+        skipZeroTerminated();
+      }
+      if ((flags & FHCRC) != 0) {
+        skipBytes(2);
+      }
+      hasReadMember = true;
+      return true;
+    }
+
+    private void readTrailer() throws IOException {
+      long expectedCrc = readIntLE() & 0xffffffffL;
+      long expectedSize = readIntLE() & 0xffffffffL;
+      if (expectedCrc != crc.getValue()) {
+        throw new ZipException("Corrupt gzip trailer (CRC mismatch)");
+      }
+      if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+        throw new ZipException("Corrupt gzip trailer (size mismatch)");
+      }
+    }
+
+    private boolean fill() throws IOException {
+      int read = source.read(buffer, 0, buffer.length);
+      if (read < 0) {
+        position = limit = 0;
+        return false;
+      }
+      position = 0;
+      limit = read;
+      return true;
+    }
+
+    private int readUnsignedByte() throws IOException {
+      if (position == limit && !fill()) {
+        throw new EOFException("Unexpected end of gzip stream");
+      }
+      return buffer[position++] & 0xff;
+    }
+
+    private int readIntLE() throws IOException {
+      return readUnsignedByte() | (readUnsignedByte() << 8) | (readUnsignedByte() << 16) | (readUnsignedByte() << 24);
+    }
+
+    private void skipBytes(int count) throws IOException {
+      for (int i = 0; i < count; i++) {
+        readUnsignedByte();
+      }
+    }
+
+    private void skipZeroTerminated() throws IOException {
+      while (readUnsignedByte() != 0) {
+        // skip
+      }
+    }
+  }
+
+  /**
+   * Decodes gzip data fed to it chunk by chunk. Headers and trailers may be split across chunks; only the input that
+   * could not be consumed yet is kept.
+   */
+  static final class Decoder implements AutoCloseable {
+    private final CRC32 crc = new CRC32();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final int maxDecodedBytes;
+    private Inflater inflater = borrowInflater();
+    private byte[] buffer = borrowBuffer();
+    private byte[] pending = new byte[0];
+    private int position = 0;
+    private int limit = 0;
+    private State state = State.HEADER;
+    private boolean hasReadMember = false;
+
+    private Decoder(int maxDecodedBytes) {
+      this.maxDecodedBytes = maxDecodedBytes;
+    }
+
+    void update(ByteBuffer chunk) throws IOException {
+      if (inflater == null) {
+        throw new IOException("Decoder closed");
+      }
+
+      append(chunk);
+      while (advance()) {
+        // keep going while a header, member or trailer completes
+      }
+    }
+
+    int decodedBytes() {
+      return output.size();
+    }
+
+    /**
+     * @return everything decoded, once the input ended after a complete member
+     */
+    byte[] finish() throws IOException {
+      if (state != State.DONE && (state != State.HEADER || position < limit)) {
+        throw new EOFException("Unexpected end of gzip stream");
+      }
+      return output.toByteArray();
+    }
+
+    @Override
+    public void close() {
+      if (inflater == null) {
+        return;
+      }
+
+      releaseInflater(inflater);
+      releaseBuffer(buffer);
+      inflater = null;
+      buffer = null;
+    }
+
+    private void append(ByteBuffer chunk) {
+      int length = chunk.remaining();
+      if (length == 0) {
+        return;
+      }
+
+      if (pending.length - limit < length) {
+        int unread = limit - position;
+        byte[] target = unread + length <= pending.length ? pending : new byte[Math.max(unread + length, pending.length * 2)];
+        System.arraycopy(pending, position, target, 0, unread);
+        pending = target;
+        position = 0;
+        limit = unread;
+      }
+      chunk.get(pending, limit, length);
+      limit += length;
+    }
+
+    /**
+     * @return false once more input is needed
+     */
+    private boolean advance() throws IOException {
+      return switch (state) {
+        case HEADER -> readHeader();
+        case BODY -> inflate();
+        case TRAILER -> readTrailer();
+        case DONE -> {
+          // Trailing bytes after the last member are ignored
+          position = limit;
+          yield false;
+        }
+      };
+    }
+
+    private boolean readHeader() throws IOException {
+      if (limit - position < 2) {
+        return false;
+      }
+      if (readShortLE(position) != GZIP_MAGIC) {
+        if (!hasReadMember) {
+          throw new ZipException("Not in gzip format");
+        }
+        state = State.DONE;
+        return true;
+      }
+      if (limit - position < HEADER.length) {
+        return false;
+      }
+      if ((pending[position + 2] & 0xff) != Deflater.DEFLATED) {
+        throw new ZipException("Unsupported gzip compression method");
+      }
+
+      int flags = pending[position + 3] & 0xff;
+      int cursor = position + HEADER.length;
+      if ((flags & FEXTRA) != 0) {
+        if (limit - cursor < 2) {
+          return false;
+        }
+        cursor += 2 + readShortLE(cursor);
+      }
+      if ((flags & FNAME) != 0) {
+        cursor = skipZeroTerminated(cursor);
+      }
+      if ((flags & FCOMMENT) != 0) {
+        cursor = skipZeroTerminated(cursor);
+      }
+      if (cursor < 0) {
+        return false;
+      }
+      if ((flags & FHCRC) != 0) {
+        cursor += 2;
+      }
+      if (cursor > limit) {
+        return false;
+      }
+
+      position = cursor;
+      hasReadMember = true;
+      state = State.BODY;
+      return true;
+    }
+
+    private boolean inflate() throws IOException {
+      inflater.setInput(pending, position, limit - position);
+      try {
+        int inflated;
+        // One byte past the budget is enough to tell that the data exceeds it
+        while ((inflated = inflater.inflate(buffer, 0, (int) Math.min(buffer.length, maxDecodedBytes - output.size() + 1L))) > 0) {
+          if (output.size() + inflated > maxDecodedBytes) {
+            throw new IOException("Decoded gzip data exceeds " + maxDecodedBytes + " bytes");
+          }
+          crc.update(buffer, 0, inflated);
+          output.write(buffer, 0, inflated);
+        }
+      } catch (DataFormatException e) {
+        throw new ZipException(e.getMessage());
+      }
+      position = limit - inflater.getRemaining();
+
+      if (inflater.finished()) {
+        state = State.TRAILER;
+        return true;
+      }
+      if (inflater.needsDictionary()) {
+        throw new ZipException("Unexpected preset dictionary in gzip stream");
+      }
+      return false;
+    }
+
+    private boolean readTrailer() throws IOException {
+      if (limit - position < 8) {
+        return false;
+      }
+
+      long expectedCrc = readIntLE(position) & 0xffffffffL;
+      long expectedSize = readIntLE(position + 4) & 0xffffffffL;
+      position += 8;
+      if (expectedCrc != crc.getValue()) {
+        throw new ZipException("Corrupt gzip trailer (CRC mismatch)");
+      }
+      if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+        throw new ZipException("Corrupt gzip trailer (size mismatch)");
+      }
+
+      inflater.reset();
+      crc.reset();
+      state = State.HEADER;
+      return true;
+    }
+
+    /**
+     * @return the position after the terminating zero, or -1 if it was not received yet
+     */
+    private int skipZeroTerminated(int cursor) {
+      if (cursor < 0) {
+        return -1;
+      }
+      for (int i = cursor; i < limit; i++) {
+        if (pending[i] == 0) {
+          return i + 1;
+        }
+      }
+      return -1;
+    }
+
+    private int readShortLE(int offset) {
+      return (pending[offset] & 0xff) | ((pending[offset + 1] & 0xff) << 8);
+    }
+
+    private int readIntLE(int offset) {
+      return readShortLE(offset) | (readShortLE(offset + 2) << 16);
+    }
+
+    private enum State {
+      HEADER,
+      BODY,
+      TRAILER,
+      DONE
+    }
+  }
+}
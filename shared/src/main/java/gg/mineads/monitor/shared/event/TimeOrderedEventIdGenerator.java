@@ -0,0 +1,62 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Version 7 UUIDs as specified by RFC 9562: a 48 bit Unix timestamp in milliseconds, a 12 bit counter and 62 random
+ * bits.
+ *
+ * <p>Each thread keeps its own counter, so IDs from one thread sort in creation order even within a millisecond, and
+ * producers on different threads never contend. The counter starts at a random value below 2048 in every new
+ * millisecond. If it runs out, the timestamp is moved ahead by a millisecond, as the RFC allows. The random bits come
+ * from {@link ThreadLocalRandom}; they do not need to be unpredictable, only unique.
+ */
+final class TimeOrderedEventIdGenerator implements EventIdGenerator {
+  private static final long VERSION_7 = 0x7000L;
+  private static final long VARIANT = 0x8000000000000000L;
+  private static final int MAX_COUNTER = 0xfff;
+  private static final int COUNTER_SEED_BOUND = 0x800;
+  private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+  @Override
+  public String nextId() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    State state = STATE.get();
+    long now = System.currentTimeMillis();
+    if (now > state.timestamp) {
+      state.timestamp = now;
+      state.counter = random.nextInt(COUNTER_SEED_BOUND);
+    } else if (++state.counter > MAX_COUNTER) {
+      // Same millisecond, or the clock went back; either way the thread's IDs stay ordered
+      state.timestamp++;
+      state.counter = random.nextInt(COUNTER_SEED_BOUND);
+    }
+
+    long mostSigBits = (state.timestamp << 16) | VERSION_7 | state.counter;
+    long leastSigBits = (random.nextLong() >>> 2) | VARIANT;
+    return new UUID(mostSigBits, leastSigBits).toString();
+  }
+
+  private static final class State {
+    private long timestamp = Long.MIN_VALUE;
+    private int counter;
+  }
+}
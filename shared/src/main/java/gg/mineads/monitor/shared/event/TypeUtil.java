@@ -21,13 +21,11 @@ import gg.mineads.monitor.shared.event.generated.*;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 import java.util.function.BiConsumer;
-import java.util.UUID;
 
 public class TypeUtil {
+  private static final EventIdGenerator EVENT_ID_GENERATOR = EventIdGenerator.TIME_ORDERED;
+
   private TypeUtil() {}
 
   public static String getHostString(SocketAddress address) {
@@ -54,7 +52,7 @@ public class TypeUtil {
   public static MineAdsEvent createJoinEvent(PlayerJoinData data) {
     return MineAdsEvent.newBuilder()
       .setTime(System.currentTimeMillis())
-      .setEventId(UUID.randomUUID().toString())
+      .setEventId(EVENT_ID_GENERATOR.nextId())
       .setJoinData(data)
       .build();
   }
@@ -62,7 +60,7 @@ public class TypeUtil {
   public static MineAdsEvent createLeaveEvent(PlayerLeaveData data) {
     return MineAdsEvent.newBuilder()
       .setTime(System.currentTimeMillis())
-      .setEventId(UUID.randomUUID().toString())
+      .setEventId(EVENT_ID_GENERATOR.nextId())
       .setLeaveData(data)
       .build();
   }
@@ -70,7 +68,7 @@ public class TypeUtil {
   public static MineAdsEvent createHeartbeatEvent(PlayerHeartbeatData data) {
     return MineAdsEvent.newBuilder()
       .setTime(System.currentTimeMillis())
-      .setEventId(UUID.randomUUID().toString())
+      .setEventId(EVENT_ID_GENERATOR.nextId())
       .setHeartbeatData(data)
       .build();
   }
@@ -78,7 +76,7 @@ public class TypeUtil {
   public static MineAdsEvent createChatEvent(PlayerChatData data) {
     return MineAdsEvent.newBuilder()
       .setTime(System.currentTimeMillis())
-      .setEventId(UUID.randomUUID().toString())
+      .setEventId(EVENT_ID_GENERATOR.nextId())
       .setChatData(data)
       .build();
   }
@@ -86,7 +84,7 @@ public class TypeUtil {
   public static MineAdsEvent createPlayerSettingsEvent(PlayerSettingsData data) {
     return MineAdsEvent.newBuilder()
       .setTime(System.currentTimeMillis())
-      .setEventId(UUID.randomUUID().toString())
+      .setEventId(EVENT_ID_GENERATOR.nextId())
       .setSettingsData(data)
       .build();
   }
@@ -94,12 +92,12 @@ public class TypeUtil {
   public static MineAdsEvent createPlayerClientBrandEvent(PlayerClientBrandData data) {
     return MineAdsEvent.newBuilder()
       .setTime(System.currentTimeMillis())
-      .setEventId(UUID.randomUUID().toString())
+      .setEventId(EVENT_ID_GENERATOR.nextId())
       .setClientBrandData(data)
       .build();
   }
 
-  public static PlayerCommandData.Builder createCommandDataBuilder(String sessionId, String fullCommand, boolean slashPrefixed, int defaultMaxArgs, Map<String, Integer> commandArgLimits) {
+  public static PlayerCommandData.Builder createCommandDataBuilder(String sessionId, String fullCommand, boolean slashPrefixed, CommandArgLimits commandArgLimits) {
     PlayerCommandData.Builder builder = PlayerCommandData.newBuilder()
       .setSessionId(sessionId);
 
@@ -107,44 +105,62 @@ public class TypeUtil {
       return builder.setIsTruncated(false); // Empty command, no truncation
     }
 
-    // Remove leading slash if present
-    String command = slashPrefixed ? fullCommand.substring(1) : fullCommand;
+    // Skip the leading slash if present
+    int position = slashPrefixed ? 1 : 0;
+    int length = fullCommand.length();
 
-    // Split into arguments
-    String[] parts = command.split("\\s+");
-    if (parts.length == 0) {
+    int nameStart = skipWhitespace(fullCommand, position);
+    if (nameStart == length) {
       return builder.setIsTruncated(false);
     }
+    int nameEnd = skipToken(fullCommand, nameStart);
 
-    String commandName = parts[0];
-    int maxArgs = commandArgLimits.getOrDefault(commandName, defaultMaxArgs);
-
-    List<String> arguments = new ArrayList<>();
+    int maxArgs = commandArgLimits.maxArgs(fullCommand, nameStart, nameEnd);
 
     // If maxArgs == 0, disable command content (empty list, not truncated)
-    boolean isTruncated = false;
-
-    if (maxArgs > 0) {
-      // Add command name as first argument
-      arguments.add(commandName);
-      // Add additional arguments up to maxArgs - 1 (since command name is already 1)
-      for (int i = 1; i < parts.length && arguments.size() < maxArgs; i++) {
-        arguments.add(parts[i]);
-      }
-      if (parts.length > maxArgs) {
-        isTruncated = true;
-      }
+    if (maxArgs <= 0) {
+      return builder.setIsTruncated(false);
+    }
+
+    // The command name is the first argument; only the kept arguments are copied out
+    builder.addArguments(fullCommand.substring(nameStart, nameEnd));
+    int kept = 1;
+    position = skipWhitespace(fullCommand, nameEnd);
+    while (position < length && kept < maxArgs) {
+      int tokenEnd = skipToken(fullCommand, position);
+      builder.addArguments(fullCommand.substring(position, tokenEnd));
+      kept++;
+      position = skipWhitespace(fullCommand, tokenEnd);
     }
 
-    return builder
-      .addAllArguments(arguments)
-      .setIsTruncated(isTruncated);
+    return builder.setIsTruncated(position < length);
+  }
+
+  private static int skipWhitespace(String text, int position) {
+    while (position < text.length() && isWhitespace(text.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  private static int skipToken(String text, int position) {
+    while (position < text.length() && !isWhitespace(text.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * Same characters as the regex class {@code \s}.
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
   }
 
   public static MineAdsEvent createCommandEvent(PlayerCommandData data) {
     return MineAdsEvent.newBuilder()
       .setTime(System.currentTimeMillis())
-      .setEventId(UUID.randomUUID().toString())
+      .setEventId(EVENT_ID_GENERATOR.nextId())
       .setCommandData(data)
       .build();
   }
@@ -152,7 +168,7 @@ public class TypeUtil {
   public static MineAdsEvent createTransactionEvent(TransactionData data, BiConsumer<MineAdsEvent.Builder, TransactionData> eventTypeSetter) {
     MineAdsEvent.Builder builder = MineAdsEvent.newBuilder()
       .setTime(System.currentTimeMillis())
-      .setEventId(UUID.randomUUID().toString());
+      .setEventId(EVENT_ID_GENERATOR.nextId());
 
     eventTypeSetter.accept(builder, data);
 
@@ -0,0 +1,98 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.config.Config;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Token buckets for uploads per second and uploaded bytes per second. Each bucket holds up to one second of tokens.
+ *
+ * <p>The size of an upload is only known once it was built, so the byte bucket may go into debt. The next upload
+ * then waits until the debt is paid off, which keeps the average rate at the limit.
+ */
+final class UploadRateLimiter {
+  private static final Config.Delivery DEFAULT_SETTINGS = new Config.Delivery();
+
+  private final Supplier<Config> configSupplier;
+  private double requestTokens;
+  private double byteTokens;
+  private long lastRefillNanos = System.nanoTime();
+
+  UploadRateLimiter(Supplier<Config> configSupplier) {
+    this.configSupplier = configSupplier;
+    Config.Delivery settings = settings();
+    this.requestTokens = settings.getMaxRequestsPerSecond();
+    this.byteTokens = settings.getMaxBytesPerSecond();
+  }
+
+  /**
+   * @return how long to wait before the next upload may be sent, 0 if it may be sent now
+   */
+  synchronized long millisUntilAvailable() {
+    Config.Delivery settings = settings();
+    refill(settings);
+
+    double waitSeconds = 0;
+    if (settings.getMaxRequestsPerSecond() > 0 && requestTokens < 1) {
+      waitSeconds = (1 - requestTokens) / settings.getMaxRequestsPerSecond();
+    }
+    if (settings.getMaxBytesPerSecond() > 0 && byteTokens < 0) {
+      waitSeconds = Math.max(waitSeconds, -byteTokens / settings.getMaxBytesPerSecond());
+    }
+    return waitSeconds == 0 ? 0 : Math.max(1, (long) Math.ceil(waitSeconds * 1000));
+  }
+
+  synchronized void recordUpload(int payloadBytes) {
+    Config.Delivery settings = settings();
+    refill(settings);
+    if (settings.getMaxRequestsPerSecond() > 0) {
+      requestTokens -= 1;
+    }
+    if (settings.getMaxBytesPerSecond() > 0) {
+      byteTokens -= payloadBytes;
+    }
+  }
+
+  private void refill(Config.Delivery settings) {
+    long now = System.nanoTime();
+    double elapsedSeconds = (double) (now - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1);
+    lastRefillNanos = now;
+    requestTokens = Math.min(settings.getMaxRequestsPerSecond(), requestTokens + elapsedSeconds * settings.getMaxRequestsPerSecond());
+    byteTokens = Math.min(settings.getMaxBytesPerSecond(), byteTokens + elapsedSeconds * settings.getMaxBytesPerSecond());
+  }
+
+  private Config.Delivery settings() {
+    Config config = configSupplier.get();
+    return config != null && config.getDelivery() != null ? config.getDelivery() : DEFAULT_SETTINGS;
+  }
+
+  /**
+   * Spreads a backoff delay over its upper half, so servers that failed at the same time do not retry in lockstep.
+   */
+  static long withJitter(long delayMillis) {
+    if (delayMillis <= 1) {
+      return delayMillis;
+    }
+    long half = delayMillis / 2;
+    return half + ThreadLocalRandom.current().nextLong(delayMillis - half + 1);
+  }
+}
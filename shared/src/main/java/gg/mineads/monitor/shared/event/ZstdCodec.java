@@ -0,0 +1,100 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Zstandard frames produced by the pure Java implementation from aircompressor, which needs no native library.
+ * Concatenated frames decode like a single one, so coalesced uploads work the same as with gzip.
+ */
+final class ZstdCodec implements PayloadCodec {
+  private static final int MAGIC = 0xFD2FB528;
+
+  @Override
+  public String contentEncoding() {
+    return "zstd";
+  }
+
+  @Override
+  public OutputStream compress(OutputStream target) {
+    // Frames are compressed in one go, so collect the input first
+    return new ByteArrayOutputStream(8192) {
+      private boolean closed = false;
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        try {
+          byte[] frame = compressFrame(buf, count);
+          target.write(frame);
+        } finally {
+          target.close();
+        }
+      }
+    };
+  }
+
+  @Override
+  public byte[] compress(byte[] data) {
+    return compressFrame(data, data.length);
+  }
+
+  @Override
+  public byte[] decompress(byte[] payload) throws IOException {
+    // Only used on single stored batches, which are always one frame
+    long size = ZstdDecompressor.getDecompressedSize(payload, 0, payload.length);
+    if (size < 0 || size > Integer.MAX_VALUE) {
+      throw new IOException("Zstd frame does not declare a usable content size");
+    }
+
+    byte[] output = new byte[(int) size];
+    try {
+      int length = new ZstdDecompressor().decompress(payload, 0, payload.length, output, 0, output.length);
+      if (length != output.length) {
+        throw new IOException("Zstd frame decoded to " + length + " bytes instead of " + output.length);
+      }
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt zstd frame: " + e.getMessage(), e);
+    }
+    return output;
+  }
+
+  @Override
+  public boolean isEncoded(byte[] payload) {
+    return payload.length >= 4
+      && ((payload[0] & 0xff) | (payload[1] & 0xff) << 8 | (payload[2] & 0xff) << 16 | (payload[3] & 0xff) << 24) == MAGIC;
+  }
+
+  private static byte[] compressFrame(byte[] data, int length) {
+    ZstdCompressor compressor = new ZstdCompressor();
+    byte[] output = new byte[compressor.maxCompressedLength(length)];
+    int compressedLength = compressor.compress(data, 0, length, output, 0, output.length);
+    byte[] frame = new byte[compressedLength];
+    System.arraycopy(output, 0, frame, 0, compressedLength);
+    return frame;
+  }
+}
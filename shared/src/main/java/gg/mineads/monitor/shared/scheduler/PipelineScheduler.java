@@ -0,0 +1,132 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.scheduler;
+
+import lombok.extern.java.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Runs the event pipeline on an executor owned by the plugin instead of the platform's shared async pool, so event
+ * building, LuckPerms lookups and blocking uploads do not compete with other plugins.
+ *
+ * <p>Virtual threads are used where the JVM has them. Otherwise a small bounded pool of daemon threads is used, and
+ * tasks it cannot take are handed to the platform scheduler. Timers stay with the platform scheduler and only hand
+ * their task over when they fire.
+ */
+@Log
+public final class PipelineScheduler implements MineAdsScheduler {
+  private static final String THREAD_NAME_PREFIX = "MineAdsMonitor-pipeline-";
+  private static final int FALLBACK_QUEUE_CAPACITY = 10000;
+  private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+  private final MineAdsScheduler platformScheduler;
+  private final ExecutorService executor;
+
+  public PipelineScheduler(MineAdsScheduler platformScheduler) {
+    this.platformScheduler = platformScheduler;
+    this.executor = createExecutor();
+  }
+
+  @Override
+  public void scheduleAsync(Runnable task, long delay, long period, TimeUnit timeUnit) {
+    platformScheduler.scheduleAsync(() -> runAsync(task), delay, period, timeUnit);
+  }
+
+  @Override
+  public void scheduleAsyncDelayed(Runnable task, long delay, TimeUnit timeUnit) {
+    platformScheduler.scheduleAsyncDelayed(() -> runAsync(task), delay, timeUnit);
+  }
+
+  /**
+   * Tasks submitted after {@link #shutdown()} are dropped, like a platform scheduler drops the tasks of a disabled
+   * plugin. Listeners and platform timers may still submit while the plugin is disabling.
+   */
+  @Override
+  public void runAsync(Runnable task) {
+    if (executor.isShutdown()) {
+      logDroppedTask();
+      return;
+    }
+
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      if (executor.isShutdown()) {
+        logDroppedTask();
+        return;
+      }
+      // The fallback pool is saturated
+      platformScheduler.runAsync(task);
+    }
+  }
+
+  private static void logDroppedTask() {
+    log.fine("Dropped a task submitted after the event pipeline was shut down");
+  }
+
+  /**
+   * Lets running tasks finish for a bounded time, then interrupts them. Tasks submitted afterwards are ignored.
+   */
+  public void shutdown() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        log.warning("Event pipeline tasks did not finish within " + SHUTDOWN_TIMEOUT_MS + "ms, interrupting them");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ExecutorService createExecutor() {
+    try {
+      // Looked up reflectively because the platform jars also run on JVMs without virtual threads
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.log(Level.FINE, "Virtual threads are not available, using a platform thread pool for the event pipeline", e);
+    }
+
+    int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(FALLBACK_QUEUE_CAPACITY), new DaemonThreadFactory());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -19,17 +19,38 @@ package gg.mineads.monitor.shared.skin;
 
 import gg.mineads.monitor.shared.skin.model.MojangProfileResponse;
 import gg.mineads.monitor.shared.skin.model.MojangProfileTexture;
+import gg.mineads.monitor.shared.skin.model.MojangProfileTextureMeta;
 import gg.mineads.monitor.shared.skin.property.SkinProperty;
 import gg.mineads.monitor.shared.skin.property.SkinVariant;
 
+import java.util.Collection;
 import java.util.Optional;
 
 public record SkinData(String skinTextureHash, String capeTextureHash, SkinVariant skinVariant) {
+  private static final SkinDataCache CACHE = new SkinDataCache(1024);
+
+  /**
+   * Decodes the first of the properties that holds a skin. Decoding parses JSON, so call this off the join thread.
+   */
+  public static Optional<SkinData> fromProperties(Collection<SkinProperty> properties) {
+    for (SkinProperty property : properties) {
+      Optional<SkinData> skinData = fromProperty(property);
+      if (skinData.isPresent()) {
+        return skinData;
+      }
+    }
+    return Optional.empty();
+  }
+
   public static Optional<SkinData> fromProperty(SkinProperty property) {
     if (property == null) {
       return Optional.empty();
     }
 
+    return CACHE.get(property.getValue(), () -> decode(property));
+  }
+
+  private static Optional<SkinData> decode(SkinProperty property) {
     MojangProfileResponse response;
     try {
       response = PropertyUtils.getSkinProfileData(property);
@@ -47,7 +68,9 @@ public record SkinData(String skinTextureHash, String capeTextureHash, SkinVaria
       capeTextureHash = response.getTextures().getCAPE().getTextureHash();
     }
 
-    SkinVariant variant = PropertyUtils.getSkinVariant(property);
+    // Same rule as PropertyUtils.getSkinVariant, without decoding the property a second time
+    MojangProfileTextureMeta meta = skinTexture.getMetadata();
+    SkinVariant variant = meta != null && "slim".equalsIgnoreCase(meta.getModel()) ? SkinVariant.SLIM : SkinVariant.CLASSIC;
 
     return Optional.of(new SkinData(skinTextureHash, capeTextureHash, variant));
   }
@@ -0,0 +1,75 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.skin;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU of decoded skins, keyed by the SHA-256 of the textures property value. The same skins come back with
+ * every join of the same player, and keying by the digest keeps the cache small however long the values are.
+ */
+final class SkinDataCache {
+  private final int capacity;
+  private final Map<ByteBuffer, Optional<SkinData>> entries;
+
+  SkinDataCache(int capacity) {
+    this.capacity = capacity;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Optional<SkinData>> eldest) {
+        return size() > SkinDataCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * @param decoder decodes the value on a miss; it runs without holding the cache lock
+   */
+  Optional<SkinData> get(String propertyValue, Supplier<Optional<SkinData>> decoder) {
+    ByteBuffer key = digest(propertyValue);
+    Optional<SkinData> cached;
+    synchronized (entries) {
+      cached = entries.get(key);
+    }
+    if (cached != null) {
+      return cached;
+    }
+
+    Optional<SkinData> decoded = decoder.get();
+    synchronized (entries) {
+      entries.put(key, decoded);
+    }
+    return decoded;
+  }
+
+  private static ByteBuffer digest(String value) {
+    try {
+      // ByteBuffer compares by content, so the digest can be used as the key as is
+      return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedMpscBufferTest {
+  private static final int PRODUCERS = 8;
+  private static final int PER_PRODUCER = 20_000;
+
+  @Test
+  void capacityIsRoundedUpToAPowerOfTwo() {
+    assertEquals(2, new BoundedMpscBuffer<>(2).capacity());
+    assertEquals(8, new BoundedMpscBuffer<>(5).capacity());
+    assertEquals(1024, new BoundedMpscBuffer<>(1024).capacity());
+    assertThrows(IllegalArgumentException.class, () -> new BoundedMpscBuffer<>(1));
+  }
+
+  @Test
+  void offerFailsWhenFull() {
+    BoundedMpscBuffer<Integer> buffer = new BoundedMpscBuffer<>(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer(i));
+    }
+    assertFalse(buffer.offer(4));
+    assertEquals(4, buffer.size());
+
+    assertEquals(0, buffer.poll());
+    assertTrue(buffer.offer(4));
+    assertFalse(buffer.offer(5));
+  }
+
+  @Test
+  void keepsFifoOrderAcrossWraparound() {
+    BoundedMpscBuffer<Integer> buffer = new BoundedMpscBuffer<>(4);
+    int next = 0;
+    for (int round = 0; round < 10; round++) {
+      assertTrue(buffer.offer(round * 2));
+      assertTrue(buffer.offer(round * 2 + 1));
+      assertEquals(next, buffer.peek());
+      assertEquals(next++, buffer.poll());
+      assertEquals(next++, buffer.poll());
+    }
+    assertNull(buffer.peek());
+    assertNull(buffer.poll());
+    assertTrue(buffer.isEmpty());
+    assertThrows(NullPointerException.class, () -> buffer.offer(null));
+  }
+
+  @Test
+  void concurrentProducersLoseAndDuplicateNothing() throws Exception {
+    BoundedMpscBuffer<Long> buffer = new BoundedMpscBuffer<>(1024);
+    ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> producers = new ArrayList<>();
+      for (int producer = 0; producer < PRODUCERS; producer++) {
+        long id = producer;
+        producers.add(executor.submit(() -> {
+          start.await();
+          for (long sequence = 0; sequence < PER_PRODUCER; sequence++) {
+            // The buffer is much smaller than what is offered, so producers regularly find it full
+            while (!buffer.offer(id << 32 | sequence)) {
+              Thread.yield();
+            }
+          }
+          return null;
+        }));
+      }
+
+      long[] nextSequence = new long[PRODUCERS];
+      long received = 0;
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      start.countDown();
+      while (received < (long) PRODUCERS * PER_PRODUCER) {
+        Long element = buffer.poll();
+        if (element == null) {
+          assertTrue(System.nanoTime() < deadline, "Timed out after " + received + " elements");
+          Thread.onSpinWait();
+          continue;
+        }
+        int producer = (int) (element >>> 32);
+        // Each producer's elements arrive once and in order, so a gap or a repeat shows up here
+        assertEquals(nextSequence[producer]++, element & 0xffffffffL);
+        received++;
+      }
+      for (Future<?> producer : producers) {
+        producer.get(10, TimeUnit.SECONDS);
+      }
+
+      long[] expected = new long[PRODUCERS];
+      Arrays.fill(expected, PER_PRODUCER);
+      assertArrayEquals(expected, nextSequence);
+      assertNull(buffer.poll());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void concurrentProducersFillExactlyToCapacity() throws Exception {
+    BoundedMpscBuffer<Integer> buffer = new BoundedMpscBuffer<>(1024);
+    ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<List<Integer>>> producers = new ArrayList<>();
+      for (int producer = 0; producer < PRODUCERS; producer++) {
+        int base = producer * 1000;
+        producers.add(executor.submit(() -> {
+          start.await();
+          List<Integer> accepted = new ArrayList<>();
+          for (int i = 0; i < 1000; i++) {
+            if (buffer.offer(base + i)) {
+              accepted.add(base + i);
+            }
+          }
+          return accepted;
+        }));
+      }
+      start.countDown();
+
+      Set<Integer> accepted = new HashSet<>();
+      for (Future<List<Integer>> producer : producers) {
+        accepted.addAll(producer.get(10, TimeUnit.SECONDS));
+      }
+      assertEquals(1024, accepted.size());
+      assertEquals(1024, buffer.size());
+
+      Set<Integer> polled = new HashSet<>();
+      Integer element;
+      while ((element = buffer.poll()) != null) {
+        assertTrue(polled.add(element));
+      }
+      assertEquals(accepted, polled);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
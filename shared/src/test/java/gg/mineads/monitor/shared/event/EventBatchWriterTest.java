@@ -0,0 +1,104 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.event.generated.EventBatch;
+import gg.mineads.monitor.shared.event.generated.MineAdsEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class EventBatchWriterTest {
+  private static final int EVENTS_PER_BATCH = 200;
+  private static final int ROUNDS = 200;
+
+  @Test
+  void writesTheSameBytesAsEventBatch() throws IOException {
+    List<MineAdsEvent> events = TestEvents.chats(50);
+    EventBatchWriter writer = new EventBatchWriter();
+
+    for (PayloadCodec codec : List.of(PayloadCodec.GZIP, PayloadCodec.ZSTD)) {
+      byte[] payload = toArray(writer.write("server-test", events, codec));
+      byte[] expected = EventBatch.newBuilder().addAllEvents(events).setServerId("server-test").build().toByteArray();
+      assertArrayEquals(expected, codec.decompress(payload));
+    }
+  }
+
+  /**
+   * Compares the bytes allocated per event with the path the writer replaced: build an EventBatch, copy it out with
+   * toByteArray() and gzip that into a stream sized to the uncompressed batch.
+   */
+  @Test
+  void allocatesLessPerEventThanBuildingTheBatch() throws IOException {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "thread allocation counters are not available");
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    assumeTrue(allocations.isThreadAllocatedMemorySupported(), "thread allocation counters are not available");
+    allocations.setThreadAllocatedMemoryEnabled(true);
+
+    List<MineAdsEvent> events = TestEvents.chats(EVENTS_PER_BATCH);
+    EventBatchWriter writer = new EventBatchWriter();
+    // Warm up both paths so class loading and pool setup are not measured
+    for (int i = 0; i < 20; i++) {
+      writer.write("server-test", events, PayloadCodec.GZIP);
+      buildAndCompress(events);
+    }
+
+    long threadId = Thread.currentThread().getId();
+    long start = allocations.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ROUNDS; i++) {
+      writer.write("server-test", events, PayloadCodec.GZIP);
+    }
+    long writerBytes = allocations.getThreadAllocatedBytes(threadId) - start;
+
+    start = allocations.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ROUNDS; i++) {
+      buildAndCompress(events);
+    }
+    long baselineBytes = allocations.getThreadAllocatedBytes(threadId) - start;
+
+    long writerPerEvent = writerBytes / ((long) ROUNDS * EVENTS_PER_BATCH);
+    long baselinePerEvent = baselineBytes / ((long) ROUNDS * EVENTS_PER_BATCH);
+    assertTrue(writerPerEvent * 2 < baselinePerEvent,
+      "writer allocated " + writerPerEvent + " bytes per event, building the batch " + baselinePerEvent);
+  }
+
+  private static byte[] buildAndCompress(List<MineAdsEvent> events) throws IOException {
+    byte[] uncompressed = EventBatch.newBuilder().addAllEvents(events).setServerId("server-test").build().toByteArray();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(uncompressed.length);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+      gzip.write(uncompressed);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
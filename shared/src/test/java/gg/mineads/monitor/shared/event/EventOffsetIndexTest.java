@@ -0,0 +1,88 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.event.generated.EventBatch;
+import gg.mineads.monitor.shared.event.generated.MineAdsEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EventOffsetIndexTest {
+  private final EventBatchWriter writer = new EventBatchWriter();
+
+  @Test
+  void sliceKeepsMatchingEventsAndServerId() throws IOException {
+    List<MineAdsEvent> events = TestEvents.chats(5);
+    byte[] batch = writeUncompressed(events);
+
+    EventOffsetIndex.Slice slice = writer.lastEventIndex()
+      .slice(batch, Set.of(events.get(1).getEventId(), events.get(3).getEventId()));
+
+    EventBatch parsed = EventBatch.parseFrom(slice.batch());
+    assertEquals(2, slice.eventCount());
+    assertEquals(List.of(events.get(1), events.get(3)), parsed.getEventsList());
+    assertEquals("server-test", parsed.getServerId());
+
+    // The index of the slice describes the slice
+    EventOffsetIndex.Slice again = slice.index().slice(slice.batch(), Set.of(events.get(3).getEventId()));
+    assertEquals(List.of(events.get(3)), EventBatch.parseFrom(again.batch()).getEventsList());
+  }
+
+  @Test
+  void sliceWithoutMatchesIsEmpty() throws IOException {
+    byte[] batch = writeUncompressed(TestEvents.chats(3));
+
+    EventOffsetIndex.Slice slice = writer.lastEventIndex().slice(batch, Set.of("not-in-batch"));
+
+    assertEquals(0, slice.eventCount());
+    assertArrayEquals(new byte[0], slice.batch());
+  }
+
+  @Test
+  void sliceRejectsIndexOfAnotherBatch() throws IOException {
+    List<MineAdsEvent> events = TestEvents.chats(4);
+    byte[] batch = writeUncompressed(events);
+    EventOffsetIndex index = writer.lastEventIndex();
+    byte[] truncated = Arrays.copyOf(batch, batch.length / 2);
+
+    assertThrows(IOException.class, () -> index.slice(truncated, Set.of(events.get(3).getEventId())));
+  }
+
+  @Test
+  void sliceRejectsEmptyIndex() {
+    EventOffsetIndex empty = new EventOffsetIndex.Builder(0).build();
+
+    assertThrows(IOException.class, () -> empty.slice(new byte[16], Set.of("any")));
+  }
+
+  private byte[] writeUncompressed(List<MineAdsEvent> events) throws IOException {
+    ByteBuffer compressed = writer.write("server-test", events, PayloadCodec.GZIP);
+    byte[] payload = new byte[compressed.remaining()];
+    compressed.get(payload);
+    return PayloadCodec.GZIP.decompress(payload);
+  }
+}
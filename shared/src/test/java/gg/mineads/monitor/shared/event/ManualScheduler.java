@@ -0,0 +1,71 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.scheduler.MineAdsScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler that only runs tasks when a test asks it to.
+ */
+final class ManualScheduler implements MineAdsScheduler {
+  private final List<Runnable> periodic = new ArrayList<>();
+  private final List<Runnable> delayed = new ArrayList<>();
+  private final List<Runnable> async = new ArrayList<>();
+
+  @Override
+  public void scheduleAsync(Runnable task, long delay, long period, TimeUnit timeUnit) {
+    periodic.add(task);
+  }
+
+  @Override
+  public void scheduleAsyncDelayed(Runnable task, long delay, TimeUnit timeUnit) {
+    delayed.add(task);
+  }
+
+  @Override
+  public void runAsync(Runnable task) {
+    async.add(task);
+  }
+
+  int delayedCount() {
+    return delayed.size();
+  }
+
+  /**
+   * Runs the async tasks submitted so far, including those submitted while running them.
+   */
+  void runAsyncTasks() {
+    while (!async.isEmpty()) {
+      async.remove(0).run();
+    }
+  }
+
+  void runDelayedTasks() {
+    List<Runnable> due = new ArrayList<>(delayed);
+    delayed.clear();
+    due.forEach(Runnable::run);
+  }
+
+  void runPeriodicTasks() {
+    new ArrayList<>(periodic).forEach(Runnable::run);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.event.generated.EventBatch;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PayloadCodecTest {
+  private static final int ROUNDS = 200;
+  private static final byte[] BATCH = EventBatch.newBuilder()
+    .addAllEvents(TestEvents.mixed(500))
+    .setServerId("survival-main")
+    .build()
+    .toByteArray();
+
+  @Test
+  void roundTripsARepresentativeBatch() throws IOException {
+    for (PayloadCodec codec : List.of(PayloadCodec.GZIP, PayloadCodec.ZSTD)) {
+      byte[] payload = codec.compress(BATCH);
+      assertSame(codec, PayloadCodec.detect(payload));
+      assertArrayEquals(BATCH, codec.decompress(payload), codec.contentEncoding());
+    }
+  }
+
+  /**
+   * Ratio of the codecs against the gzip path that was used before, {@link GZIPOutputStream} at its default level.
+   */
+  @Test
+  void compressesAsWellAsThePreviousGzipPath() throws IOException {
+    int baseline = jdkGzip(BATCH).length;
+
+    int gzip = PayloadCodec.GZIP.compress(BATCH).length;
+    int zstd = PayloadCodec.ZSTD.compress(BATCH).length;
+
+    assertTrue(baseline < BATCH.length / 3, "the batch is not repetitive enough to compare codecs: " + baseline + " of " + BATCH.length);
+    assertTrue(gzip <= baseline * 1.02, "gzip " + gzip + " bytes, previous path " + baseline);
+    assertTrue(zstd < baseline, "zstd " + zstd + " bytes, previous path " + baseline);
+  }
+
+  /**
+   * CPU time per batch against the previous gzip path, after a warm-up. The bound is loose, as this only guards
+   * against a codec becoming much more expensive.
+   */
+  @Test
+  void costsAtMostTwiceThePreviousGzipPath() throws IOException {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isCurrentThreadCpuTimeSupported(), "thread CPU time is not available");
+
+    long baseline = cpuNanosPerBatch(threads, PayloadCodecTest::jdkGzip);
+    long gzip = cpuNanosPerBatch(threads, PayloadCodec.GZIP::compress);
+    long zstd = cpuNanosPerBatch(threads, PayloadCodec.ZSTD::compress);
+
+    assertTrue(gzip <= baseline * 2, "gzip " + gzip + "ns per batch, previous path " + baseline + "ns");
+    assertTrue(zstd <= baseline * 2, "zstd " + zstd + "ns per batch, previous path " + baseline + "ns");
+  }
+
+  @Test
+  void rejectsCorruptZstdFrames() throws IOException {
+    byte[] payload = PayloadCodec.ZSTD.compress(BATCH);
+    payload[payload.length / 2] ^= 0x5a;
+    payload[payload.length / 2 + 1] ^= 0x5a;
+
+    assertThrows(IOException.class, () -> PayloadCodec.ZSTD.decompress(payload));
+  }
+
+  private static long cpuNanosPerBatch(ThreadMXBean threads, Compressor compressor) throws IOException {
+    for (int i = 0; i < 100; i++) {
+      compressor.compress(BATCH);
+    }
+    long start = threads.getCurrentThreadCpuTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      compressor.compress(BATCH);
+    }
+    return (threads.getCurrentThreadCpuTime() - start) / ROUNDS;
+  }
+
+  private static byte[] jdkGzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+      gzip.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  @FunctionalInterface
+  private interface Compressor {
+    byte[] compress(byte[] data) throws IOException;
+  }
+}
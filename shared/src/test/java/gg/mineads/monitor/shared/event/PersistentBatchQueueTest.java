@@ -0,0 +1,360 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersistentBatchQueueTest {
+  // Segments roll at 4 MiB, so five of these span two segments
+  private static final int LARGE_PAYLOAD_BYTES = 1024 * 1024;
+
+  @TempDir
+  Path queueDir;
+
+  private final List<PersistentBatchQueue> opened = new ArrayList<>();
+
+  @AfterEach
+  void closeQueues() {
+    opened.forEach(PersistentBatchQueue::close);
+  }
+
+  @Test
+  void appendedBatchesSurviveRestart() throws IOException {
+    EventBatchWriter writer = new EventBatchWriter();
+    ByteBuffer written = writer.write("server-test", TestEvents.chats(4), PayloadCodec.GZIP);
+    byte[] indexed = new byte[written.remaining()];
+    written.get(indexed);
+    EventOffsetIndex eventIndex = writer.lastEventIndex();
+
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    queue.append(ByteBuffer.wrap(payload(1, 100)), 3, null);
+    queue.append(ByteBuffer.wrap(indexed), 4, eventIndex);
+    queue.append(ByteBuffer.wrap(payload(3, 0)), 0, null);
+    queue.close();
+
+    PersistentBatchQueue reopened = open(new ManualScheduler());
+    assertBatch(reopened.readNext(), payload(1, 100), 3);
+    try (PersistentBatchQueue.BatchRecord record = reopened.readNext()) {
+      assertArrayEquals(indexed, record.payload());
+      assertEquals(4, record.eventCount());
+      assertArrayEquals(indexBytes(eventIndex), indexBytes(record.eventIndex()));
+    }
+    assertBatch(reopened.readNext(), payload(3, 0), 0);
+    assertNull(reopened.readNext());
+  }
+
+  @Test
+  void tornLastRecordIsTruncated() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    queue.append(ByteBuffer.wrap(payload(1, 200)), 1, null);
+    queue.append(ByteBuffer.wrap(payload(2, 200)), 2, null);
+    queue.close();
+
+    Path segment = single(segmentFiles());
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 50);
+    }
+
+    PersistentBatchQueue reopened = open(new ManualScheduler());
+    assertBatch(reopened.readNext(), payload(1, 200), 1);
+    assertNull(reopened.readNext());
+
+    // The torn segment is never written to again, appends go to a new one
+    reopened.append(ByteBuffer.wrap(payload(3, 200)), 3, null);
+    assertBatch(reopened.readNext(), payload(3, 200), 3);
+    assertEquals(2, segmentFiles().size());
+  }
+
+  @Test
+  void recordWithChecksumMismatchIsIgnored() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    queue.append(ByteBuffer.wrap(payload(1, 200)), 1, null);
+    queue.append(ByteBuffer.wrap(payload(2, 200)), 2, null);
+    queue.close();
+
+    // Flip the last payload byte of the second record, leaving its length intact
+    Path segment = single(segmentFiles());
+    byte[] bytes = Files.readAllBytes(segment);
+    bytes[bytes.length - 1] ^= 0x5A;
+    Files.write(segment, bytes);
+
+    PersistentBatchQueue reopened = open(new ManualScheduler());
+    assertBatch(reopened.readNext(), payload(1, 200), 1);
+    assertNull(reopened.readNext());
+  }
+
+  @Test
+  void acknowledgedBatchesAreNotRestored() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    for (int i = 0; i < 3; i++) {
+      queue.append(ByteBuffer.wrap(payload(i, 100)), i + 1, null);
+    }
+    queue.readNext().close();
+    queue.readNext().close();
+    queue.close();
+
+    PersistentBatchQueue reopened = open(new ManualScheduler());
+    assertBatch(reopened.readNext(), payload(2, 100), 3);
+    assertNull(reopened.readNext());
+  }
+
+  @Test
+  void checkpointDeletesAcknowledgedSegments() throws IOException {
+    ManualScheduler scheduler = new ManualScheduler();
+    PersistentBatchQueue queue = open(scheduler);
+    for (int i = 0; i < 5; i++) {
+      queue.append(ByteBuffer.wrap(payload(i, LARGE_PAYLOAD_BYTES)), 1, null);
+    }
+    List<Path> before = segmentFiles();
+    assertEquals(2, before.size());
+
+    for (int i = 0; i < 4; i++) {
+      queue.readNext().close();
+    }
+    scheduler.runPeriodicTasks();
+    assertEquals(List.of(before.get(1)), segmentFiles());
+
+    // The checkpoint advanced past the deleted segment, so a restart only restores what is left
+    queue.close();
+    PersistentBatchQueue reopened = open(new ManualScheduler());
+    assertBatch(reopened.readNext(), payload(4, LARGE_PAYLOAD_BYTES), 1);
+    assertNull(reopened.readNext());
+  }
+
+  @Test
+  void rolledBackBatchIsHandedOutAgainInOrder() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    for (int i = 0; i < 3; i++) {
+      queue.append(ByteBuffer.wrap(payload(i, 100)), i + 1, null);
+    }
+    PersistentBatchQueue.BatchRecord first = queue.readNext();
+    PersistentBatchQueue.BatchRecord second = queue.readNext();
+    second.close();
+    first.rollback();
+    first.close();
+
+    assertBatch(queue.readNext(), payload(0, 100), 1);
+    assertBatch(queue.readNext(), payload(2, 100), 3);
+    assertNull(queue.readNext());
+  }
+
+  @Test
+  void attemptSurvivesRestart() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    queue.append(ByteBuffer.wrap(payload(1, 100)), 1, null);
+    try (PersistentBatchQueue.BatchRecord record = queue.readNext()) {
+      record.setAttempt(3);
+      record.rollback();
+    }
+    queue.close();
+
+    try (PersistentBatchQueue.BatchRecord record = open(new ManualScheduler()).readNext()) {
+      assertEquals(3, record.attempt());
+      assertArrayEquals(payload(1, 100), record.payload());
+    }
+  }
+
+  @Test
+  void payloadsAreReadFromSealedAndActiveSegments() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    for (int i = 0; i < 5; i++) {
+      queue.append(ByteBuffer.wrap(payload(i, LARGE_PAYLOAD_BYTES)), 1, null);
+    }
+    assertEquals(2, segmentFiles().size());
+
+    // The first four are mapped from the sealed segment, the last is read through the write channel
+    for (int i = 0; i < 5; i++) {
+      assertBatch(queue.readNext(), payload(i, LARGE_PAYLOAD_BYTES), 1);
+    }
+    assertTrue(queue.spoolBytes() > 5L * LARGE_PAYLOAD_BYTES);
+  }
+
+  @Test
+  void groupCommitSchedulesOneSyncPerWindow() {
+    ManualScheduler scheduler = new ManualScheduler();
+    PersistentBatchQueue queue = open(scheduler);
+    for (int i = 0; i < 10; i++) {
+      queue.append(ByteBuffer.wrap(payload(i, 100)), 1, null);
+    }
+    assertEquals(1, scheduler.delayedCount());
+
+    scheduler.runDelayedTasks();
+    queue.append(ByteBuffer.wrap(payload(10, 100)), 1, null);
+    assertEquals(1, scheduler.delayedCount());
+  }
+
+  @Test
+  void olderSegmentsAreRestoredInTheBackground() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    for (int i = 0; i < 5; i++) {
+      queue.append(ByteBuffer.wrap(payload(i, LARGE_PAYLOAD_BYTES)), 1, null);
+    }
+    queue.close();
+
+    ManualScheduler scheduler = new ManualScheduler();
+    PersistentBatchQueue reopened = new PersistentBatchQueue(queueDir, scheduler, () -> null);
+    opened.add(reopened);
+
+    // Appends are accepted right away, but nothing is handed out until the older segment was read
+    reopened.append(ByteBuffer.wrap(payload(5, 100)), 2, null);
+    assertFalse(reopened.hasMore());
+    assertNull(reopened.readNext());
+
+    scheduler.runAsyncTasks();
+    for (int i = 0; i < 5; i++) {
+      assertBatch(reopened.readNext(), payload(i, LARGE_PAYLOAD_BYTES), 1);
+    }
+    assertBatch(reopened.readNext(), payload(5, 100), 2);
+    assertNull(reopened.readNext());
+  }
+
+  @Test
+  void replacementInNewerSegmentWinsOverOriginal() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    for (int i = 0; i < 5; i++) {
+      queue.append(ByteBuffer.wrap(payload(i, LARGE_PAYLOAD_BYTES)), 10, null);
+    }
+    try (PersistentBatchQueue.BatchRecord record = queue.readNext()) {
+      record.replace(ByteBuffer.wrap(payload(7, 50)), 2, null, 1);
+      record.rollback();
+    }
+    queue.close();
+    assertEquals(2, segmentFiles().size());
+
+    PersistentBatchQueue reopened = open(new ManualScheduler());
+    try (PersistentBatchQueue.BatchRecord record = reopened.readNext()) {
+      assertArrayEquals(payload(7, 50), record.payload());
+      assertEquals(2, record.eventCount());
+      assertEquals(1, record.attempt());
+    }
+    for (int i = 1; i < 5; i++) {
+      assertBatch(reopened.readNext(), payload(i, LARGE_PAYLOAD_BYTES), 10);
+    }
+    assertNull(reopened.readNext());
+  }
+
+  @Test
+  void laterReplacementInSameSegmentWins() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    queue.append(ByteBuffer.wrap(payload(1, 100)), 10, null);
+    queue.append(ByteBuffer.wrap(payload(2, 100)), 10, null);
+    for (int attempt = 1; attempt <= 2; attempt++) {
+      try (PersistentBatchQueue.BatchRecord record = queue.readNext()) {
+        record.replace(ByteBuffer.wrap(payload(5 + attempt, 50)), 10 - attempt, null, attempt);
+        record.rollback();
+      }
+    }
+    queue.close();
+    single(segmentFiles());
+
+    PersistentBatchQueue reopened = open(new ManualScheduler());
+    try (PersistentBatchQueue.BatchRecord record = reopened.readNext()) {
+      assertArrayEquals(payload(7, 50), record.payload());
+      assertEquals(8, record.eventCount());
+      assertEquals(2, record.attempt());
+    }
+    assertBatch(reopened.readNext(), payload(2, 100), 10);
+    assertNull(reopened.readNext());
+  }
+
+  @Test
+  void crashAfterReplacementDoesNotReuseIndex() throws IOException {
+    PersistentBatchQueue queue = open(new ManualScheduler());
+    queue.append(ByteBuffer.wrap(payload(1, 100)), 10, null);
+    queue.append(ByteBuffer.wrap(payload(2, 100)), 10, null);
+    queue.close();
+
+    // After a restart the replacement rolls a segment named after a fresh index it does not hold
+    PersistentBatchQueue restarted = open(new ManualScheduler());
+    try (PersistentBatchQueue.BatchRecord record = restarted.readNext()) {
+      record.replace(ByteBuffer.wrap(payload(7, 50)), 5, null, 1);
+      record.rollback();
+    }
+    // Abandoned without closing, as if the server crashed before appending anything else
+
+    PersistentBatchQueue recovered = open(new ManualScheduler());
+    recovered.append(ByteBuffer.wrap(payload(3, 100)), 10, null);
+    assertEquals(3, segmentFiles().size());
+
+    assertBatch(recovered.readNext(), payload(7, 50), 5);
+    assertBatch(recovered.readNext(), payload(2, 100), 10);
+    assertBatch(recovered.readNext(), payload(3, 100), 10);
+    assertNull(recovered.readNext());
+  }
+
+  /**
+   * Opens the queue and finishes restoring it.
+   */
+  private PersistentBatchQueue open(ManualScheduler scheduler) {
+    PersistentBatchQueue queue = new PersistentBatchQueue(queueDir, scheduler, () -> null);
+    opened.add(queue);
+    scheduler.runAsyncTasks();
+    return queue;
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(queueDir)) {
+      return files.filter(path -> path.getFileName().toString().startsWith("segment-")).sorted().toList();
+    }
+  }
+
+  private static Path single(List<Path> paths) {
+    assertEquals(1, paths.size());
+    return paths.get(0);
+  }
+
+  private static void assertBatch(PersistentBatchQueue.BatchRecord record, byte[] payload, int eventCount) throws IOException {
+    assertNotNull(record);
+    try (record) {
+      assertArrayEquals(payload, record.payload());
+      assertEquals(eventCount, record.eventCount());
+    }
+  }
+
+  private static byte[] payload(int seed, int length) {
+    byte[] bytes = new byte[length];
+    Arrays.fill(bytes, (byte) seed);
+    return bytes;
+  }
+
+  private static byte[] indexBytes(EventOffsetIndex index) {
+    ByteBuffer buffer = ByteBuffer.allocate(index.size() * EventOffsetIndex.ENTRY_BYTES);
+    index.writeTo(buffer);
+    return buffer.array();
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.event.generated.EventBatch;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PooledGzipTest {
+  // Larger than the scratch buffers, so members span several inflate and deflate calls
+  private static final byte[] DATA = EventBatch.newBuilder()
+    .addAllEvents(TestEvents.mixed(300))
+    .setServerId("survival-main")
+    .build()
+    .toByteArray();
+
+  @Test
+  void outputIsReadableByGzipInputStream() throws IOException {
+    try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(PooledGzip.gzip(DATA)))) {
+      assertArrayEquals(DATA, input.readAllBytes());
+    }
+    assertArrayEquals(new byte[0], jdkGunzip(PooledGzip.gzip(new byte[0])));
+  }
+
+  @Test
+  void readsGzipOutputStream() throws IOException {
+    byte[] compressed = jdkGzip(DATA);
+
+    assertArrayEquals(DATA, PooledGzip.gunzip(compressed));
+    assertArrayEquals(DATA, decode(compressed, compressed.length));
+  }
+
+  @Test
+  void readsConcatenatedMembers() throws IOException {
+    byte[] second = Arrays.copyOf(DATA, 1000);
+    byte[] concatenated = concat(jdkGzip(DATA), PooledGzip.gzip(second), jdkGzip(new byte[0]));
+    byte[] expected = concat(DATA, second);
+
+    assertArrayEquals(expected, PooledGzip.gunzip(concatenated));
+    assertArrayEquals(expected, decode(concatenated, concatenated.length));
+  }
+
+  @Test
+  void decoderAcceptsArbitraryChunkBoundaries() throws IOException {
+    byte[] compressed = concat(jdkGzip(DATA), withOptionalHeaderFields(jdkGzip(DATA)));
+    byte[] expected = concat(DATA, DATA);
+
+    // Byte by byte splits every header and trailer field
+    assertArrayEquals(expected, decode(compressed, 1));
+    Random random = new Random(42);
+    for (int round = 0; round < 50; round++) {
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      try (PooledGzip.Decoder decoder = PooledGzip.decoder(Integer.MAX_VALUE)) {
+        int offset = 0;
+        while (offset < compressed.length) {
+          int length = Math.min(compressed.length - offset, 1 + random.nextInt(64));
+          decoder.update(ByteBuffer.wrap(compressed, offset, length));
+          offset += length;
+        }
+        decoded.write(decoder.finish());
+      }
+      assertArrayEquals(expected, decoded.toByteArray(), "round " + round);
+    }
+  }
+
+  @Test
+  void ignoresTrailingGarbageAfterLastMember() throws IOException {
+    byte[] compressed = concat(jdkGzip(DATA), new byte[]{1, 2, 3});
+
+    assertArrayEquals(DATA, PooledGzip.gunzip(compressed));
+    assertArrayEquals(DATA, decode(compressed, 7));
+  }
+
+  @Test
+  void rejectsCorruptTrailer() throws IOException {
+    byte[] badCrc = jdkGzip(DATA);
+    badCrc[badCrc.length - 8] ^= 1;
+    byte[] badSize = jdkGzip(DATA);
+    badSize[badSize.length - 1] ^= 1;
+
+    for (byte[] corrupt : new byte[][]{badCrc, badSize}) {
+      assertThrows(ZipException.class, () -> PooledGzip.gunzip(corrupt));
+      assertThrows(ZipException.class, () -> decode(corrupt, corrupt.length));
+      assertThrows(ZipException.class, () -> decode(corrupt, 3));
+    }
+  }
+
+  @Test
+  void rejectsTruncatedAndNonGzipInput() throws IOException {
+    byte[] compressed = jdkGzip(DATA);
+    byte[] truncated = Arrays.copyOf(compressed, compressed.length - 4);
+
+    assertThrows(EOFException.class, () -> PooledGzip.gunzip(truncated));
+    assertThrows(EOFException.class, () -> decode(truncated, 100));
+    assertThrows(ZipException.class, () -> PooledGzip.gunzip(DATA));
+    assertThrows(ZipException.class, () -> decode(DATA, DATA.length));
+  }
+
+  @Test
+  void decoderCountsDecodedBytesAsTheyArrive() throws IOException {
+    byte[] compressed = jdkGzip(DATA);
+    try (PooledGzip.Decoder decoder = PooledGzip.decoder(Integer.MAX_VALUE)) {
+      decoder.update(ByteBuffer.wrap(compressed, 0, compressed.length / 2));
+      int partial = decoder.decodedBytes();
+      decoder.update(ByteBuffer.wrap(compressed, compressed.length / 2, compressed.length - compressed.length / 2));
+
+      assertEquals(DATA.length, decoder.decodedBytes());
+      assertTrue(partial > 0 && partial < DATA.length);
+      assertArrayEquals(DATA, decoder.finish());
+    }
+  }
+
+  @Test
+  void decoderStopsAtItsLimit() throws IOException {
+    // Zeros compress about a thousandfold, so a small body would expand far past the limit
+    byte[] bomb = jdkGzip(new byte[16 * 1024 * 1024]);
+    int limit = 64 * 1024;
+
+    try (PooledGzip.Decoder decoder = PooledGzip.decoder(limit)) {
+      IOException e = assertThrows(IOException.class, () -> decoder.update(ByteBuffer.wrap(bomb)));
+      assertTrue(e.getMessage().contains("exceeds"));
+      assertTrue(decoder.decodedBytes() <= limit);
+    }
+
+    // Exactly the limit is still accepted
+    byte[] exact = Arrays.copyOf(DATA, limit);
+    try (PooledGzip.Decoder decoder = PooledGzip.decoder(limit)) {
+      decoder.update(ByteBuffer.wrap(jdkGzip(exact)));
+      assertArrayEquals(exact, decoder.finish());
+    }
+  }
+
+  private static byte[] decode(byte[] compressed, int chunkBytes) throws IOException {
+    try (PooledGzip.Decoder decoder = PooledGzip.decoder(Integer.MAX_VALUE)) {
+      for (int offset = 0; offset < compressed.length; offset += chunkBytes) {
+        decoder.update(ByteBuffer.wrap(compressed, offset, Math.min(chunkBytes, compressed.length - offset)));
+      }
+      return decoder.finish();
+    }
+  }
+
+  /**
+   * Rewrites the header of a member written by {@link GZIPOutputStream} to carry an extra field, a file name,
+   * a comment and a header checksum, none of which that stream writes itself.
+   */
+  private static byte[] withOptionalHeaderFields(byte[] member) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(member, 0, 3);
+    bytes.write(4 | 8 | 16 | 2); // FEXTRA, FNAME, FCOMMENT, FHCRC
+    bytes.write(member, 4, 6);
+    bytes.writeBytes(new byte[]{3, 0, 'a', 'b', 'c'});
+    bytes.writeBytes(new byte[]{'b', 'a', 't', 'c', 'h', 0});
+    bytes.writeBytes(new byte[]{'c', 0});
+    bytes.writeBytes(new byte[]{0, 0}); // not verified
+    bytes.write(member, 10, member.length - 10);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] jdkGzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream output = new GZIPOutputStream(bytes)) {
+      output.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] jdkGunzip(byte[] data) throws IOException {
+    try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(data))) {
+      return input.readAllBytes();
+    }
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      bytes.writeBytes(part);
+    }
+    return bytes.toByteArray();
+  }
+}
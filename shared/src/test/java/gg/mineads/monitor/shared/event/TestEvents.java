@@ -0,0 +1,81 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import gg.mineads.monitor.shared.event.generated.MineAdsEvent;
+import gg.mineads.monitor.shared.event.generated.PlayerChatData;
+import gg.mineads.monitor.shared.event.generated.PlayerSettingsData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Events for tests that need realistic batches.
+ */
+final class TestEvents {
+  private TestEvents() {}
+
+  static MineAdsEvent chat(String message) {
+    return TypeUtil.createChatEvent(PlayerChatData.newBuilder()
+      .setSessionId(UUID.randomUUID().toString())
+      .setMessage(message)
+      .build());
+  }
+
+  static List<MineAdsEvent> chats(int count) {
+    List<MineAdsEvent> events = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      events.add(chat("message number " + i + " from a player on the server"));
+    }
+    return events;
+  }
+
+  /**
+   * A batch like a busy server sends: a few sessions that chat, run commands and change their settings.
+   */
+  static List<MineAdsEvent> mixed(int count) {
+    CommandArgLimits limits = CommandArgLimits.compile(1, Map.of("warp", 2));
+    String[] sessions = new String[8];
+    for (int i = 0; i < sessions.length; i++) {
+      sessions[i] = UUID.randomUUID().toString();
+    }
+
+    List<MineAdsEvent> events = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String session = sessions[i % sessions.length];
+      events.add(switch (i % 4) {
+        case 0, 1 -> TypeUtil.createChatEvent(PlayerChatData.newBuilder()
+          .setSessionId(session)
+          .setMessage(i % 3 == 0 ? "anyone want to trade diamonds?" : "gg, see you at spawn " + i)
+          .build());
+        case 2 -> TypeUtil.createCommandEvent(TypeUtil.createCommandDataBuilder(session, "/warp shop " + (i % 5), true, limits).build());
+        default -> TypeUtil.createPlayerSettingsEvent(PlayerSettingsData.newBuilder()
+          .setSessionId(session)
+          .setLocale("en_us")
+          .setViewDistance(12)
+          .setChatMode("FULL")
+          .setChatColors(true)
+          .setMainHand("RIGHT")
+          .build());
+      });
+    }
+    return events;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * MineAdsMonitor
+ * Copyright (C) 2025  MineAds
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gg.mineads.monitor.shared.event;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeOrderedEventIdGeneratorTest {
+  private static final int THREADS = 8;
+  private static final int IDS_PER_THREAD = 50_000;
+
+  private final EventIdGenerator generator = new TimeOrderedEventIdGenerator();
+
+  @Test
+  void writesVersionVariantAndTimestamp() {
+    long before = System.currentTimeMillis();
+    UUID id = UUID.fromString(generator.nextId());
+    long after = System.currentTimeMillis();
+
+    assertEquals(7, id.version());
+    assertEquals(2, id.variant());
+    long timestamp = id.getMostSignificantBits() >>> 16;
+    // The counter may move the timestamp ahead by a millisecond
+    assertTrue(timestamp >= before && timestamp <= after + 1, "timestamp " + timestamp + " not in [" + before + ", " + after + "]");
+  }
+
+  @Test
+  void idsOfOneThreadAreOrderedWithinAMillisecond() {
+    String previous = generator.nextId();
+    int sameMillisecond = 0;
+    for (int i = 0; i < 100_000; i++) {
+      String next = generator.nextId();
+      assertTrue(next.compareTo(previous) > 0, next + " does not sort after " + previous);
+      if (timestamp(next) == timestamp(previous)) {
+        sameMillisecond++;
+      }
+      previous = next;
+    }
+    // Otherwise the loop did not test ordering within a millisecond
+    assertTrue(sameMillisecond > 0);
+  }
+
+  @Test
+  void idsAreUniqueAcrossThreads() throws Exception {
+    List<List<String>> perThread = runOnThreads(generator::nextId);
+
+    Set<String> unique = new HashSet<>();
+    for (List<String> ids : perThread) {
+      unique.addAll(ids);
+    }
+    assertEquals(THREADS * IDS_PER_THREAD, unique.size());
+  }
+
+  /**
+   * Compares the time for many threads to generate IDs at once with {@link UUID#randomUUID()}, which all threads
+   * draw from one shared {@link java.security.SecureRandom}.
+   */
+  @Test
+  void isFasterThanRandomUuidUnderContention() throws Exception {
+    // Warm-up
+    runOnThreads(generator::nextId);
+    runOnThreads(() -> UUID.randomUUID().toString());
+
+    long start = System.nanoTime();
+    runOnThreads(generator::nextId);
+    long timeOrdered = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    runOnThreads(() -> UUID.randomUUID().toString());
+    long randomUuid = System.nanoTime() - start;
+
+    assertTrue(timeOrdered < randomUuid, "time ordered IDs took " + timeOrdered / 1_000_000 + "ms, random UUIDs "
+      + randomUuid / 1_000_000 + "ms for " + THREADS * IDS_PER_THREAD + " IDs");
+  }
+
+  private static long timestamp(String id) {
+    return UUID.fromString(id).getMostSignificantBits() >>> 16;
+  }
+
+  private static List<List<String>> runOnThreads(Supplier<String> ids) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      CyclicBarrier start = new CyclicBarrier(THREADS);
+      List<Future<List<String>>> futures = new ArrayList<>(THREADS);
+      for (int t = 0; t < THREADS; t++) {
+        Callable<List<String>> task = () -> {
+          List<String> generated = new ArrayList<>(IDS_PER_THREAD);
+          start.await();
+          for (int i = 0; i < IDS_PER_THREAD; i++) {
+            generated.add(ids.get());
+          }
+          return generated;
+        };
+        futures.add(executor.submit(task));
+      }
+
+      List<List<String>> results = new ArrayList<>(THREADS);
+      for (Future<List<String>> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
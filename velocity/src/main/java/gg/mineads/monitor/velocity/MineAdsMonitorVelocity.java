@@ -99,7 +99,7 @@ public class MineAdsMonitorVelocity {
 
     @Override
     public void registerListeners(MineAdsMonitorPlugin mineAdsPlugin) {
-      plugin.proxyServer.getEventManager().register(plugin, new PlayerListener(getScheduler(), mineAdsPlugin));
+      plugin.proxyServer.getEventManager().register(plugin, new PlayerListener(mineAdsPlugin.getScheduler(), mineAdsPlugin));
     }
 
     @Override
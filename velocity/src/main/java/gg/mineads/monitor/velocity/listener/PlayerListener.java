@@ -28,6 +28,8 @@ import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.player.PlayerSettings;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import gg.mineads.monitor.shared.MineAdsMonitorPlugin;
+import gg.mineads.monitor.shared.config.RuntimeConfig;
+import gg.mineads.monitor.shared.event.EventCapture;
 import gg.mineads.monitor.shared.event.TypeUtil;
 import gg.mineads.monitor.shared.event.generated.*;
 import gg.mineads.monitor.shared.permission.LuckPermsUtil;
@@ -39,6 +41,7 @@ import lombok.extern.java.Log;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.Locale;
 import java.util.UUID;
@@ -57,8 +60,13 @@ public class PlayerListener {
 
   @Subscribe(priority = Short.MIN_VALUE)
   public void onPostLogin(PostLoginEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.JOIN_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.JOIN_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player join event ignored - JOIN events disabled");
       }
       return;
@@ -67,13 +75,15 @@ public class PlayerListener {
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.createSession(player.getUniqueId());
     UUID sessionId = session.sessionId();
-    SkinData skinData = extractSkinData(player);
+    // Only collected here, decoding the textures happens off the join thread
+    List<SkinProperty> skinProperties = extractSkinProperties(player);
 
     // Process event asynchronously to avoid blocking main thread
     scheduler.runAsync(() -> {
-      LuckPermsData luckPermsData = LuckPermsUtil.getLuckPermsData(plugin.getConfig(), player.getUniqueId());
+      SkinData skinData = SkinData.fromProperties(skinProperties).orElse(null);
+      LuckPermsData luckPermsData = LuckPermsUtil.getLuckPermsData(runtimeConfig.config(), player.getUniqueId());
 
-      if (plugin.getConfig().isDebug()) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player joined: %s (%s), session: %s, groups: %s".formatted(player.getUsername(), player.getUniqueId(), sessionId, luckPermsData != null ? luckPermsData.getGroupsList() : null));
       }
 
@@ -130,8 +140,13 @@ public class PlayerListener {
 
   @Subscribe(priority = Short.MIN_VALUE)
   public void onDisconnect(DisconnectEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.LEAVE_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.LEAVE_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player quit event ignored - LEAVE events disabled");
       }
       return;
@@ -140,33 +155,26 @@ public class PlayerListener {
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.removeSession(player.getUniqueId());
 
-    // Process event asynchronously to avoid blocking main thread
-    scheduler.runAsync(() -> {
-      if (session != null) {
-        if (plugin.getConfig().isDebug()) {
-          log.info("[DEBUG] Player quit: %s (%s), session: %s".formatted(player.getUsername(), player.getUniqueId(), session.sessionId()));
-        }
-        PlayerLeaveData data = PlayerLeaveData.newBuilder()
-          .setSessionId(session.sessionId().toString())
-          .build();
-
-        MineAdsEvent protoEvent = TypeUtil.createLeaveEvent(data);
-
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Player quit: %s - no active session found".formatted(player.getUsername()));
-      }
-    });
+    if (session != null) {
+      plugin.getEventCapture().publish(new EventCapture.Leave(session.sessionId(), player.getUsername(), player.getUniqueId()));
+    } else if (runtimeConfig.isDebug()) {
+      log.info("[DEBUG] Player quit: %s - no active session found".formatted(player.getUsername()));
+    }
   }
 
   @Subscribe(priority = Short.MIN_VALUE)
   public void onPlayerChat(PlayerChatEvent event) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
     if (event.getResult() == PlayerChatEvent.ChatResult.denied()) {
       return;
     }
 
-    if (!isEventEnabled(MineAdsEvent.DataCase.CHAT_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.CHAT_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player chat event ignored - CHAT events disabled");
       }
       return;
@@ -175,35 +183,22 @@ public class PlayerListener {
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
 
-    // Process event asynchronously to avoid blocking main thread
-    scheduler.runAsync(() -> {
-      if (session != null) {
-        if (plugin.getConfig().isDebug()) {
-          String message = event.getMessage().substring(0, Math.min(50, event.getMessage().length())) + (event.getMessage().length() > 50 ? "..." : "");
-          log.info("[DEBUG] Player chat: %s - %s".formatted(player.getUsername(), message));
-        }
-        PlayerChatData.Builder dataBuilder = PlayerChatData.newBuilder()
-          .setSessionId(session.sessionId().toString());
-
-        if (!plugin.getConfig().isDisableChatContent()) {
-          dataBuilder.setMessage(event.getMessage());
-        }
-
-        PlayerChatData data = dataBuilder.build();
-
-        MineAdsEvent protoEvent = TypeUtil.createChatEvent(data);
-
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Player chat ignored: %s - no active session".formatted(player.getUsername()));
-      }
-    });
+    if (session != null) {
+      plugin.getEventCapture().publish(new EventCapture.Chat(session.sessionId(), player.getUsername(), event.getMessage()));
+    } else if (runtimeConfig.isDebug()) {
+      log.info("[DEBUG] Player chat ignored: %s - no active session".formatted(player.getUsername()));
+    }
   }
 
   @Subscribe(priority = Short.MIN_VALUE)
   public void onPlayerSettingsChanged(PlayerSettingsChangedEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.SETTINGS_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.SETTINGS_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player settings event ignored - PLAYER_SETTINGS events disabled");
       }
       return;
@@ -211,44 +206,37 @@ public class PlayerListener {
 
     Player player = event.getPlayer();
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
-        PlayerSettings settings = event.getPlayerSettings();
 
-    scheduler.runAsync(() -> {
-      if (session == null) {
-        if (plugin.getConfig().isDebug()) {
-          log.info("[DEBUG] Player settings ignored: %s - no active session".formatted(player.getUsername()));
-        }
-        return;
-      }
-
-      PlayerSettingsData.Builder builder = PlayerSettingsData.newBuilder()
-        .setSessionId(session.sessionId().toString())
-        .setViewDistance(settings.getViewDistance())
-        .setChatMode(settings.getChatMode().name())
-        .setChatColors(settings.hasChatColors())
-        .setMainHand(settings.getMainHand().name())
-        .setTextFilteringEnabled(settings.isTextFilteringEnabled())
-        .setAllowsServerListings(settings.isClientListingAllowed());
-
-      Locale locale = settings.getLocale();
-      if (locale != null) {
-        builder.setLocale(locale.toLanguageTag());
+    if (session == null) {
+      if (runtimeConfig.isDebug()) {
+        log.info("[DEBUG] Player settings ignored: %s - no active session".formatted(player.getUsername()));
       }
+      return;
+    }
 
-      PlayerSettingsData data = builder.build();
-      if (session.markSettingsSentIfFirst()) {
-        MineAdsEvent protoEvent = TypeUtil.createPlayerSettingsEvent(data);
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Skipping duplicate player settings event for session " + session.sessionId());
-      }
-    });
+    PlayerSettings settings = event.getPlayerSettings();
+    Locale locale = settings.getLocale();
+    plugin.getEventCapture().publish(new EventCapture.Settings(
+      session,
+      locale != null ? locale.toLanguageTag() : null,
+      settings.getViewDistance(),
+      settings.getChatMode().name(),
+      settings.hasChatColors(),
+      settings.getMainHand().name(),
+      settings.isTextFilteringEnabled(),
+      settings.isClientListingAllowed()
+    ));
   }
 
   @Subscribe(priority = Short.MIN_VALUE)
   public void onPlayerClientBrand(PlayerClientBrandEvent event) {
-    if (!isEventEnabled(MineAdsEvent.DataCase.CLIENT_BRAND_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.CLIENT_BRAND_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Client brand event ignored - PLAYER_CLIENT_BRAND events disabled");
       }
       return;
@@ -259,7 +247,7 @@ public class PlayerListener {
 
     scheduler.runAsync(() -> {
       if (session == null) {
-        if (plugin.getConfig().isDebug()) {
+        if (runtimeConfig.isDebug()) {
           log.info("[DEBUG] Client brand ignored: %s - no active session".formatted(player.getUsername()));
         }
         return;
@@ -278,7 +266,7 @@ public class PlayerListener {
         MineAdsEvent protoEvent = TypeUtil.createPlayerClientBrandEvent(data);
 
         plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
+      } else if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Skipping duplicate client brand event for session " + session.sessionId());
       }
     });
@@ -286,12 +274,17 @@ public class PlayerListener {
 
   @Subscribe(priority = Short.MIN_VALUE)
   public void onCommandExecute(CommandExecuteEvent event) {
+    RuntimeConfig runtimeConfig = plugin.getRuntimeConfig();
+    if (runtimeConfig == null) {
+      return;
+    }
+
     if (event.getResult() == CommandExecuteEvent.CommandResult.denied()) {
       return;
     }
 
-    if (!isEventEnabled(MineAdsEvent.DataCase.COMMAND_DATA)) {
-      if (plugin.getConfig().isDebug()) {
+    if (!runtimeConfig.isEventEnabled(MineAdsEvent.DataCase.COMMAND_DATA)) {
+      if (runtimeConfig.isDebug()) {
         log.info("[DEBUG] Player command event ignored - COMMAND events disabled");
       }
       return;
@@ -303,43 +296,17 @@ public class PlayerListener {
 
     PlayerSessionManager.Session session = PlayerSessionManager.getSession(player.getUniqueId());
 
-    // Process event asynchronously to avoid blocking main thread
-    scheduler.runAsync(() -> {
-      if (session != null) {
-        if (plugin.getConfig().isDebug()) {
-          String command = event.getCommand().substring(0, Math.min(50, event.getCommand().length())) + (event.getCommand().length() > 50 ? "..." : "");
-          log.info("[DEBUG] Player command: %s - %s".formatted(player.getUsername(), command));
-        }
-        PlayerCommandData.Builder dataBuilder = TypeUtil.createCommandDataBuilder(
-          session.sessionId().toString(),
-          event.getCommand(),
-          false,
-                plugin.getConfig().getDefaultMaxCommandArgs(),
-                plugin.getConfig().getCommandArgLimits()
-        );
-
-        PlayerCommandData data = dataBuilder.build();
-
-        MineAdsEvent protoEvent = TypeUtil.createCommandEvent(data);
-
-        plugin.getBatchProcessor().addEvent(protoEvent);
-      } else if (plugin.getConfig().isDebug()) {
-        log.info("[DEBUG] Player command ignored: %s - no active session".formatted(player.getUsername()));
-      }
-    });
-  }
-
-  private boolean isEventEnabled(MineAdsEvent.DataCase eventType) {
-    return plugin.getConfig().isEventEnabled(eventType);
+    if (session != null) {
+      plugin.getEventCapture().publish(new EventCapture.Command(session.sessionId(), player.getUsername(), event.getCommand(), false));
+    } else if (runtimeConfig.isDebug()) {
+      log.info("[DEBUG] Player command ignored: %s - no active session".formatted(player.getUsername()));
+    }
   }
 
-  private SkinData extractSkinData(Player player) {
+  private List<SkinProperty> extractSkinProperties(Player player) {
     return player.getGameProfile().getProperties().stream()
       .map(property -> SkinProperty.tryParse(property.getName(), property.getValue(), property.getSignature()))
       .flatMap(Optional::stream)
-      .map(SkinData::fromProperty)
-      .flatMap(Optional::stream)
-      .findFirst()
-      .orElse(null);
+      .toList();
   }
 }